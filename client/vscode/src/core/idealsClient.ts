@@ -1,7 +1,14 @@
 import * as vscode from "vscode";
 import * as net from 'net';
 
-import {integer, LanguageClientOptions, RevealOutputChannelOn,} from "vscode-languageclient";
+import {
+  DidChangeTextDocumentNotification,
+  integer,
+  LanguageClientOptions,
+  NotificationType,
+  RevealOutputChannelOn,
+  TextDocumentIdentifier,
+} from "vscode-languageclient";
 
 import {LanguageClient, ServerOptions, State, StreamInfo,} from "vscode-languageclient/node";
 import path = require("path");
@@ -10,6 +17,11 @@ import os = require('node:os');
 
 const outputChannel = vscode.window.createOutputChannel("IdeaLS Client");
 
+//Sent by the server when its copy of a document has drifted from ours.
+namespace ResyncDocumentNotification {
+  export const type = new NotificationType<TextDocumentIdentifier>("idea/resyncDocument");
+}
+
 export class IdealsClient {
   private languageClient?: LanguageClient;
   private context?: vscode.ExtensionContext;
@@ -37,6 +49,8 @@ export class IdealsClient {
         clientOptions
       );
 
+      this.languageClient.onNotification(ResyncDocumentNotification.type, (params) => this.resyncDocument(params));
+
       const disposeDidChange = this.languageClient.onDidChangeState(
         (stateChangeEvent) => {
           if (stateChangeEvent.newState === State.Stopped) {
@@ -65,6 +79,23 @@ export class IdealsClient {
     }
   }
 
+  //Reply to the server's request for the full text of a document which has drifted from ours.
+  private resyncDocument(params: TextDocumentIdentifier) {
+    const client = this.languageClient;
+    if (!client) {
+      return;
+    }
+    const uri = client.protocol2CodeConverter.asUri(params.uri).toString();
+    const document = vscode.workspace.textDocuments.find((doc) => doc.uri.toString() === uri);
+    if (!document) {
+      return;
+    }
+    client.sendNotification(DidChangeTextDocumentNotification.type, {
+      textDocument: client.code2ProtocolConverter.asVersionedTextDocumentIdentifier(document),
+      contentChanges: [{text: document.getText()}],
+    });
+  }
+
   //Create a command to be run to start the LS java process.
   getIdealsInitOptions() : IdealsInitOptions {
     let configuredTransport: String =
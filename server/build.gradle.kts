@@ -19,12 +19,22 @@ repositories {
   }
 }
 
+// JMH microbenchmarks of the hot-path utilities, run with `./gradlew jmh`
+sourceSets {
+  create("jmh") {
+    compileClasspath += sourceSets["main"].output + sourceSets["test"].compileClasspath
+    runtimeClasspath += sourceSets["main"].output + sourceSets["test"].runtimeClasspath
+  }
+}
+
 dependencies {
   implementation("org.eclipse.lsp4j:org.eclipse.lsp4j:0.17.0")
   implementation("io.github.furstenheim:copy_down:1.1")
   testImplementation("org.junit.jupiter:junit-jupiter:5.8.2")
   testImplementation("junit:junit:4.13.2")
   testRuntimeOnly("org.junit.vintage:junit-vintage-engine:5.8.2")
+  "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+  "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 
   intellijPlatform {
     intellijIdeaCommunity("2024.3")
@@ -73,6 +83,30 @@ tasks {
     useJUnitPlatform {
       includeEngines("junit-jupiter", "junit-vintage")
     }
+
+    // the latency benchmark settings, e.g. -Dideals.benchmark=true
+    System.getProperties().stringPropertyNames()
+      .filter { it.startsWith("ideals.benchmark") }
+      .forEach { systemProperty(it, System.getProperty(it)) }
+  }
+
+  register<JavaExec>("threadingBenchmark") {
+    group = "verification"
+    description = "Compares the request lanes on platform threads and on virtual threads for blocking request handlers"
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass = "org.rri.ideals.server.benchmarks.ThreadingBenchmark"
+  }
+
+  // JMH options are passed as arguments, e.g. --args="PositionConversion -prof gc" for the allocation rate
+  register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH microbenchmarks"
+    dependsOn("prepareTestSandbox")
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass = "org.openjdk.jmh.Main"
+    // the benchmarks using platform services start a headless application like the tests do;
+    // the forked benchmark JVMs inherit these arguments
+    jvmArgumentProviders.add(CommandLineArgumentProvider { test.get().allJvmArgs })
   }
 
   getByName<RunIdeTask>("runIde") {
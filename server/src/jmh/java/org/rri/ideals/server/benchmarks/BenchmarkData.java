@@ -0,0 +1,64 @@
+package org.rri.ideals.server.benchmarks;
+
+import com.intellij.testFramework.TestApplicationManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks. Generated with a fixed seed, so that runs are comparable.
+ */
+final class BenchmarkData {
+  static final long SEED = 42;
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Starts a headless application for the benchmarks relying on platform services (diff, icons).
+   */
+  static void startApplication() {
+    TestApplicationManager.getInstance();
+  }
+
+  /**
+   * A Java-like source with lines of varying length, similar to a big hand-written class.
+   */
+  @NotNull
+  static String javaSource(int lines) {
+    final var random = new Random(SEED);
+    final var builder = new StringBuilder(lines * 40);
+    builder.append("package org.example;\n\npublic class Generated {\n");
+    for (int i = 0; i < lines; i++) {
+      switch (i % 8) {
+        case 0 -> builder.append("\n  public int method").append(i).append("(int argument) {\n");
+        case 7 -> builder.append("  }\n");
+        default -> builder.append("    final var value").append(i)
+            .append(" = argument * ").append(random.nextInt(1000))
+            .append(" + \"").append("x".repeat(random.nextInt(60))).append("\".length();\n");
+      }
+    }
+    builder.append("}\n");
+    return builder.toString();
+  }
+
+  /**
+   * Applies small edits scattered over the text, as a formatter or a refactoring does.
+   */
+  @NotNull
+  static String scatterEdits(@NotNull String text, int edits) {
+    final var random = new Random(SEED);
+    final var builder = new StringBuilder(text);
+    final var step = Math.max(1, text.length() / edits);
+    // from the end, so that the offsets of the remaining edits stay valid
+    for (int offset = text.length() - step; offset > 0; offset -= step) {
+      final var at = offset + random.nextInt(Math.max(1, step / 2));
+      switch (random.nextInt(3)) {
+        case 0 -> builder.insert(at, "  ");
+        case 1 -> builder.deleteCharAt(at);
+        default -> builder.setCharAt(at, ' ');
+      }
+    }
+    return builder.toString();
+  }
+}
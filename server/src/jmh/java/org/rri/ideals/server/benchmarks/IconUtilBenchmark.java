@@ -0,0 +1,71 @@
+package org.rri.ideals.server.benchmarks;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.util.DummyIcon;
+import com.intellij.ui.LayeredIcon;
+import com.intellij.ui.PlatformIcons;
+import com.intellij.ui.RowIcon;
+import com.intellij.util.ui.EmptyIcon;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rri.ideals.server.completions.util.IconUtil;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The kind of every completion item is detected by comparing its icon with the platform ones.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IconUtilBenchmark {
+  private Icon plainIcon;
+  private Icon layeredIcon;
+  private Icon deferredIcon;
+  private Icon standardIcon;
+
+  @Setup
+  public void setUp() {
+    BenchmarkData.startApplication();
+    standardIcon = AllIcons.Nodes.Method;
+    plainIcon = AllIcons.Nodes.Field;
+    // e.g. a final method with a visibility icon
+    layeredIcon = new RowIcon(new LayeredIcon(AllIcons.Nodes.Method, AllIcons.Nodes.FinalMark), EmptyIcon.ICON_16);
+    deferredIcon = new PathIcon(PlatformIcons.Method.toString());
+  }
+
+  @Benchmark
+  public void compareIcons(Blackhole blackhole) {
+    blackhole.consume(IconUtil.compareIcons(plainIcon, standardIcon, PlatformIcons.Method));
+    blackhole.consume(IconUtil.compareIcons(layeredIcon, standardIcon, PlatformIcons.Method));
+    blackhole.consume(IconUtil.compareIcons(deferredIcon, standardIcon, PlatformIcons.Method));
+  }
+
+  // an icon which isn't loaded, as produced when icon loading is deferred
+  private record PathIcon(@NotNull String originalPath) implements Icon, DummyIcon {
+    @Override
+    public @NotNull String getOriginalPath() {
+      return originalPath;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+    }
+
+    @Override
+    public int getIconWidth() {
+      return 16;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return 16;
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package org.rri.ideals.server.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rri.ideals.server.LspPath;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * URI normalization is done for every request and every location in the results.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LspPathBenchmark {
+  @Param({
+      "file:///home/user/projects/ideals/server/src/main/java/org/rri/ideals/server/MyTextDocumentService.java",
+      "file:///c%3A/Users/user/My%20Projects/ideals/server/src/main/java/org/rri/ideals/server/LspPath.java",
+      "jar:///home/user/.m2/repository/org/eclipse/lsp4j/0.17.0/org.eclipse.lsp4j-0.17.0.jar!/org/eclipse/lsp4j/Position.class"
+  })
+  public String uri;
+
+  @Benchmark
+  public void fromLspUri(Blackhole blackhole) {
+    blackhole.consume(LspPath.fromLspUri(uri));
+  }
+}
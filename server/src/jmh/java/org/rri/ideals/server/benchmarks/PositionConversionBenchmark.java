@@ -0,0 +1,81 @@
+package org.rri.ideals.server.benchmarks;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.util.TextRange;
+import org.eclipse.lsp4j.Position;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.rri.ideals.server.util.LineIndex;
+import org.rri.ideals.server.util.MiscUtil;
+import org.rri.ideals.server.util.PositionEncoding;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offset/position conversions are done for every location, highlight and text edit in the results,
+ * so a single response may need thousands of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PositionConversionBenchmark {
+  private static final int RANGE_LENGTH = 10;
+
+  @Param({"1000", "50000"})
+  public int lines;
+
+  @Param("5000")
+  public int locations;
+
+  private Document document;
+  private int[] offsets;
+  private Position[] positions;
+
+  @Setup
+  public void setUp() {
+    BenchmarkData.startApplication();
+    document = new DocumentImpl(BenchmarkData.javaSource(lines));
+
+    final var random = new Random(BenchmarkData.SEED);
+    offsets = new int[locations];
+    positions = new Position[locations];
+    for (int i = 0; i < locations; i++) {
+      offsets[i] = random.nextInt(document.getTextLength());
+      positions[i] = MiscUtil.offsetToPosition(document, offsets[i]);
+    }
+  }
+
+  @Benchmark
+  public void offsetToPosition(Blackhole blackhole) {
+    for (int offset : offsets) {
+      blackhole.consume(MiscUtil.offsetToPosition(document, offset));
+    }
+  }
+
+  @Benchmark
+  public void offsetsToRanges(Blackhole blackhole) {
+    for (int offset : offsets) {
+      blackhole.consume(MiscUtil.getRange(document, new TextRange(offset, Math.min(offset + RANGE_LENGTH, document.getTextLength()))));
+    }
+  }
+
+  @Benchmark
+  public void offsetsToUtf8Ranges(Blackhole blackhole) {
+    final var index = LineIndex.of(document);
+    for (int offset : offsets) {
+      blackhole.consume(index.toRange(offset, Math.min(offset + RANGE_LENGTH, document.getTextLength()), PositionEncoding.UTF8));
+    }
+  }
+
+  @Benchmark
+  public void positionToOffset(Blackhole blackhole) {
+    for (var position : positions) {
+      blackhole.consume(MiscUtil.positionToOffset(document, position));
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.rri.ideals.server.benchmarks;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import org.eclipse.lsp4j.TextEdit;
+import org.openjdk.jmh.annotations.*;
+import org.rri.ideals.server.util.TextUtil;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting and completion compute their results as a diff between a document and its modified copy.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextEditFromDocsBenchmark {
+  @Param({"1000", "20000"})
+  public int lines;
+
+  @Param({"10", "2000"})
+  public int edits;
+
+  private Document oldDocument;
+  private Document newDocument;
+
+  @Setup
+  public void setUp() {
+    BenchmarkData.startApplication();
+    final var text = BenchmarkData.javaSource(lines);
+    oldDocument = new DocumentImpl(text);
+    newDocument = new DocumentImpl(BenchmarkData.scatterEdits(text, edits));
+  }
+
+  @Benchmark
+  public List<TextEdit> textEditFromDocs() {
+    return TextUtil.textEditFromDocs(oldDocument, newDocument);
+  }
+}
@@ -0,0 +1,55 @@
+package org.rri.ideals.server.benchmarks;
+
+import com.intellij.openapi.util.TextRange;
+import org.openjdk.jmh.annotations.*;
+import org.rri.ideals.server.completions.util.MergeEditsResult;
+import org.rri.ideals.server.completions.util.TextEditRearranger;
+import org.rri.ideals.server.completions.util.TextEditWithOffsets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving a completion item merges the diff edits around the insertion point into the main edit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextEditRearrangerBenchmark {
+  @Param({"10", "5000"})
+  public int edits;
+
+  private String originalText;
+  private List<TextEditWithOffsets> diff;
+  private int replaceStart;
+  private int replaceEnd;
+  private TextRange snippetBounds;
+
+  @Setup
+  public void setUp() {
+    originalText = BenchmarkData.javaSource(Math.max(100, edits));
+
+    // an edit every few characters, e.g. imports and reformatting around the inserted item
+    final var step = originalText.length() / (edits + 1);
+    diff = new ArrayList<>(edits);
+    for (int i = 1; i <= edits; i++) {
+      final var start = i * step;
+      diff.add(new TextEditWithOffsets(start, start + 1, "__"));
+    }
+
+    // the item is inserted in the middle of the file and the caret ends up a few edits further
+    replaceStart = originalText.length() / 2;
+    replaceEnd = replaceStart + 3;
+    snippetBounds = new TextRange(replaceStart + 2 * step, replaceStart + 2 * step);
+  }
+
+  @Benchmark
+  public MergeEditsResult mergeEdits() {
+    return TextEditRearranger.findOverlappingTextEditsInRangeFromMainTextEditToSnippetsAndMergeThem(
+        diff, replaceStart, replaceEnd, originalText, snippetBounds);
+  }
+}
@@ -0,0 +1,240 @@
+package org.rri.ideals.server;
+
+import com.intellij.codeInsight.daemon.impl.EditorTracker;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.fileEditor.TextEditor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.ThreadingAssertions;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Editors for the managed documents.
+ * <p>
+ * Documents are managed without an editor; an editor is only needed by the daemon, which highlights
+ * (and so reports diagnostics for) the files having one, and by the features working with a caret.
+ * The pool keeps file editors for highlighting the most recently opened or changed documents only.
+ * Their number is bounded by the {@code ideals.editors.poolSize} registry key, the least recently used one
+ * is closed when the pool overflows. The diagnostics of the document whose editor is evicted are cleared
+ * in the client, since they aren't updated anymore, unless the editor is evicted for a changed document
+ * (see {@link #reacquire}). A changed document gets its editor back, and so its diagnostics are published again.
+ * <p>
+ * Requests needing an editor lease one: the pooled editor of the file if there is one, which is never closed
+ * under the request (the pool may overflow until the leases end), or otherwise a lightweight editor
+ * created for the requests and released after the last of them.
+ * <p>
+ * All methods must be called in EDT.
+ */
+@Service(Service.Level.PROJECT)
+final public class EditorPool implements Disposable {
+  private static final Logger LOG = Logger.getInstance(EditorPool.class);
+  public static final String HITS_COUNTER = "editors.pool.hits";
+  public static final String CREATED_COUNTER = "editors.pool.created";
+  public static final String EVICTED_COUNTER = "editors.pool.evicted";
+  public static final String LIGHTWEIGHT_COUNTER = "editors.lightweight.created";
+
+  @NotNull
+  private final Project project;
+
+  // in access order, so the first one is the least recently used
+  private final LinkedHashMap<VirtualFile, Editor> editors = new LinkedHashMap<>(16, 0.75f, true);
+  // the number of running requests using the editor of each file
+  private final HashMap<VirtualFile, Integer> leases = new HashMap<>();
+  // released while leased, so closed when the last lease ends
+  private final Set<VirtualFile> releasedWhileLeased = new HashSet<>();
+  // created for the requests leasing an editor of a file without a pooled one
+  private final HashMap<VirtualFile, Editor> lightweightEditors = new HashMap<>();
+
+  public EditorPool(@NotNull Project project) {
+    this.project = project;
+  }
+
+  /**
+   * Returns the pooled editor for the file, opening one if there's none, so that the file gets highlighted.
+   */
+  public @Nullable Editor acquire(@NotNull VirtualFile file) {
+    ThreadingAssertions.assertEventDispatchThread();
+
+    return acquire(file, true);
+  }
+
+  /**
+   * Opens an editor for the changed document if its one has been evicted, so that its diagnostics are updated.
+   * Editing a document having a pooled editor evicts nothing. The document whose editor is evicted
+   * for a changed one keeps its diagnostics, as they were reported for its unchanged text.
+   */
+  public void reacquire(@NotNull VirtualFile file) {
+    ThreadingAssertions.assertEventDispatchThread();
+
+    final var pooled = editors.get(file);
+    if (pooled == null || pooled.isDisposed()) {
+      acquire(file, false);
+    }
+  }
+
+  private @Nullable Editor acquire(@NotNull VirtualFile file, boolean clearEvictedDiagnostics) {
+    // reopened before the leases of its previous editor ended
+    releasedWhileLeased.remove(file);
+    final var pooled = editors.get(file);
+    if (pooled != null && !pooled.isDisposed()) {
+      Metrics.increment(HITS_COUNTER);
+      return pooled;
+    }
+
+    final var editor = open(file);
+    if (editor == null) {
+      editors.remove(file);
+      return null;
+    }
+    Metrics.increment(CREATED_COUNTER);
+    editors.put(file, editor);
+    evictOverflow(clearEvictedDiagnostics);
+    return editor;
+  }
+
+  /**
+   * Returns the pooled editor for the file, or a lightweight one if there's none, and keeps it open
+   * until {@link #endLease} is called for the file.
+   */
+  public @Nullable Editor lease(@NotNull VirtualFile file) {
+    ThreadingAssertions.assertEventDispatchThread();
+
+    var editor = editors.get(file);
+    if (editor != null && !editor.isDisposed()) {
+      Metrics.increment(HITS_COUNTER);
+    } else {
+      editor = lightweightEditors.get(file);
+      if (editor == null) {
+        final var doc = FileDocumentManager.getInstance().getDocument(file);
+        if (doc == null) {
+          return null;
+        }
+        editor = EditorFactory.getInstance().createEditor(doc, project, file, false);
+        Metrics.increment(LIGHTWEIGHT_COUNTER);
+        lightweightEditors.put(file, editor);
+      }
+    }
+    leases.merge(file, 1, Integer::sum);
+    return editor;
+  }
+
+  public void endLease(@NotNull VirtualFile file) {
+    ThreadingAssertions.assertEventDispatchThread();
+
+    final var remaining = leases.computeIfPresent(file, (key, count) -> count > 1 ? count - 1 : null);
+    if (remaining != null) {
+      return;
+    }
+    final var lightweight = lightweightEditors.remove(file);
+    if (lightweight != null && !lightweight.isDisposed()) {
+      EditorFactory.getInstance().releaseEditor(lightweight);
+    }
+    if (releasedWhileLeased.remove(file)) {
+      release(file);
+    } else {
+      evictOverflow(true);
+    }
+  }
+
+  /**
+   * Closes the editor of the file, if it's pooled. A leased editor is closed when its last lease ends.
+   */
+  public void release(@NotNull VirtualFile file) {
+    ThreadingAssertions.assertEventDispatchThread();
+
+    if (leases.containsKey(file)) {
+      releasedWhileLeased.add(file);
+      return;
+    }
+    final var editor = editors.remove(file);
+    if (editor != null) {
+      close(file, editor);
+    }
+  }
+
+  public int size() {
+    return editors.size();
+  }
+
+  @TestOnly
+  public int getLeaseCount() {
+    return leases.values().stream().mapToInt(Integer::intValue).sum();
+  }
+
+  @Override
+  public void dispose() {
+    lightweightEditors.values().stream()
+        .filter(editor -> !editor.isDisposed())
+        .forEach(EditorFactory.getInstance()::releaseEditor);
+    lightweightEditors.clear();
+    editors.clear();
+    leases.clear();
+    releasedWhileLeased.clear();
+  }
+
+  private void evictOverflow(boolean clearDiagnostics) {
+    final var capacity = Math.max(1, Registry.intValue("ideals.editors.poolSize", 16));
+    final var iterator = editors.entrySet().iterator();
+    while (editors.size() > capacity && iterator.hasNext()) {
+      final var eldest = iterator.next();
+      if (leases.containsKey(eldest.getKey())) {
+        continue;
+      }
+      iterator.remove();
+      LOG.debug("Evicting editor: " + eldest.getKey());
+      Metrics.increment(EVICTED_COUNTER);
+      close(eldest.getKey(), eldest.getValue());
+      if (clearDiagnostics) {
+        // the file isn't highlighted anymore, so its diagnostics would go stale
+        LspContext.getContext(project).getClient().publishDiagnostics(
+            new PublishDiagnosticsParams(LspPath.fromVirtualFile(eldest.getKey()).toLspUri(), List.of()));
+      }
+    }
+  }
+
+  private @Nullable Editor open(@NotNull VirtualFile file) {
+    final var fileEditorManager = FileEditorManager.getInstance(project);
+    final var editor = Optional.ofNullable(fileEditorManager.getSelectedEditor(file))
+        .filter(TextEditor.class::isInstance)
+        .map(fileEditor -> ((TextEditor) fileEditor).getEditor())
+        .orElseGet(() -> fileEditorManager.openTextEditor(new OpenFileDescriptor(project, file, 0), false));
+
+    // In a unit test, active editors are not updated automatically
+    if (editor != null && ApplicationManager.getApplication().isUnitTestMode()) {
+      final var activeEditors = new ArrayList<>(EditorTracker.getInstance(project).getActiveEditors());
+      activeEditors.add(editor);
+      EditorTracker.getInstance(project).setActiveEditors(activeEditors);
+    }
+    return editor;
+  }
+
+  private void close(@NotNull VirtualFile file, @NotNull Editor editor) {
+    if (ApplicationManager.getApplication().isUnitTestMode()) {
+      final var activeEditors = new ArrayList<>(EditorTracker.getInstance(project).getActiveEditors());
+      activeEditors.remove(editor);
+      EditorTracker.getInstance(project).setActiveEditors(activeEditors);
+    }
+    FileEditorManager.getInstance(project).closeFile(file);
+  }
+}
@@ -4,6 +4,7 @@ import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.eclipse.lsp4j.jsonrpc.services.JsonSegment;
 import org.rri.ideals.server.extensions.Runnable;
+import org.rri.ideals.server.util.Metrics;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -16,4 +17,11 @@ public interface ExperimentalProtocolExtensions {
 
     @JsonRequest
     CompletableFuture<List<Runnable>> runnables(TextDocumentIdentifier params);
+
+    /**
+     * Counters, per-method latency histograms (in microseconds) and histograms of other values (e.g. batch sizes)
+     * collected since the server start.
+     */
+    @JsonRequest
+    CompletableFuture<Metrics.Snapshot> metrics();
 }
@@ -0,0 +1,162 @@
+package org.rri.ideals.server;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.eclipse.lsp4j.FileChangeType;
+import org.eclipse.lsp4j.FileEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.util.Metrics;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings VFS in sync with the file changes reported by the client.
+ * <p>
+ * Changes are debounced: a batch is refreshed once no more changes arrive for {@code ideals.files.refreshDelayMs},
+ * but not later than 10 such delays after its first change, so that a long stream of changes
+ * (e.g. a git checkout) doesn't postpone the refresh forever.
+ * Every batch is one asynchronous VFS refresh of the affected files only;
+ * a created file is not known to VFS yet, so its nearest known parent is refreshed instead.
+ * Nothing is refreshed recursively: the files are marked dirty themselves, and a directory rescans its own children.
+ */
+@Service(Service.Level.PROJECT)
+final public class FileChangesRefresher implements Disposable {
+  private static final Logger LOG = Logger.getInstance(FileChangesRefresher.class);
+  public static final String EVENTS_COUNTER = "files.changes.events";
+  public static final String BATCHES_COUNTER = "files.changes.batches";
+  public static final String REFRESHED_FILES_COUNTER = "files.changes.refreshed";
+  public static final String REFRESH_HISTOGRAM = "files.changes.refresh";
+  public static final String BATCH_SIZE_HISTOGRAM = "files.changes.batchSize";
+
+  @NotNull
+  private final Project project;
+
+  // guarded by this
+  @NotNull
+  private Set<LspPath> pending = new HashSet<>();
+  @Nullable
+  private ScheduledFuture<?> scheduledFlush;
+  private long firstPendingNanos;
+
+  public FileChangesRefresher(@NotNull Project project) {
+    this.project = project;
+  }
+
+  public void enqueue(@NotNull List<@NotNull FileEvent> events) {
+    final var managedDocuments = project.getService(ManagedDocuments.class);
+    final var paths = new ArrayList<LspPath>();
+    for (var event : events) {
+      if (!event.getUri().startsWith("file:")) {
+        continue;
+      }
+      final var path = LspPath.fromLspUri(event.getUri());
+      // the client is the source of truth for the contents of the open documents
+      if (event.getType() == FileChangeType.Changed && managedDocuments.isManaged(path)) {
+        continue;
+      }
+      paths.add(path);
+    }
+    Metrics.add(EVENTS_COUNTER, events.size());
+    if (!paths.isEmpty()) {
+      enqueuePaths(paths);
+    }
+  }
+
+  public synchronized void enqueuePaths(@NotNull List<@NotNull LspPath> paths) {
+    final var now = System.nanoTime();
+    if (pending.isEmpty()) {
+      firstPendingNanos = now;
+    }
+    pending.addAll(paths);
+
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+    }
+    final var delayNanos = TimeUnit.MILLISECONDS.toNanos(Registry.intValue("ideals.files.refreshDelayMs", 300));
+    final var deadlineNanos = firstPendingNanos + 10 * delayNanos;
+    scheduledFlush = AppExecutorUtil.getAppScheduledExecutorService().schedule(
+        this::flush, Math.max(0, Math.min(delayNanos, deadlineNanos - now)), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Refreshes the files synchronously, bypassing the debouncing; must not be called in the EDT.
+   */
+  public void refreshNow(@NotNull List<@NotNull LspPath> paths) {
+    refresh(new HashSet<>(paths), false);
+  }
+
+  @Override
+  public synchronized void dispose() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+    }
+    pending = new HashSet<>();
+  }
+
+  private void flush() {
+    final Set<LspPath> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new HashSet<>();
+      scheduledFlush = null;
+    }
+    refresh(batch, true);
+  }
+
+  private void refresh(@NotNull Set<LspPath> batch, boolean async) {
+    if (batch.isEmpty() || project.isDisposed()) {
+      return;
+    }
+
+    final var files = findFilesToRefresh(batch);
+    LOG.debug("Refreshing " + files.size() + " files for " + batch.size() + " changed paths");
+    Metrics.increment(BATCHES_COUNTER);
+    Metrics.recordValue(BATCH_SIZE_HISTOGRAM, batch.size());
+    Metrics.add(REFRESHED_FILES_COUNTER, files.size());
+    if (files.isEmpty()) {
+      return;
+    }
+
+    final var start = System.nanoTime();
+    // a dirty directory compares its children with the disk on refresh, which is how the created files are noticed
+    VfsUtil.markDirty(false, false, files.toArray(VirtualFile[]::new));
+    LocalFileSystem.getInstance().refreshFiles(files, async, false,
+        () -> Metrics.recordLatency(REFRESH_HISTOGRAM, System.nanoTime() - start));
+  }
+
+  static @NotNull Set<VirtualFile> findFilesToRefresh(@NotNull Set<LspPath> paths) {
+    final var files = new HashSet<VirtualFile>();
+    for (var path : paths) {
+      final var file = findNearestKnownFile(path.toPath());
+      if (file != null) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  private static @Nullable VirtualFile findNearestKnownFile(@NotNull Path path) {
+    final var fileSystem = LocalFileSystem.getInstance();
+    for (var current = path; current != null; current = current.getParent()) {
+      final var file = fileSystem.findFileByNioFile(current);
+      if (file != null) {
+        return file;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,10 @@
+package org.rri.ideals.server;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @param length    the length of the document text, in characters
+ * @param threshold the length above which documents are opened in large file mode
+ */
+public record LargeFileModeParams(@NotNull String uri, long length, long threshold) {
+}
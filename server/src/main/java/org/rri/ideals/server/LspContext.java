@@ -1,13 +1,21 @@
 package org.rri.ideals.server;
 
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectLocator;
+import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.util.Key;
 import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.GeneralClientCapabilities;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.util.PositionEncoding;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LspContext {
   @NotNull
@@ -19,18 +27,33 @@ public class LspContext {
   @NotNull
   private final Map<String, String> config = new HashMap<>();
 
+  @NotNull
+  private final PositionEncoding positionEncoding;
+
   private static final Key<LspContext> KEY = new Key<>(LspContext.class.getCanonicalName());
+  private static final Key<DocumentEncoding> DOCUMENT_ENCODING_KEY = new Key<>("ideals.documentEncoding");
+
+  // advanced whenever a session is created, which makes the encodings cached in the documents outdated
+  private static final AtomicInteger sessionGeneration = new AtomicInteger();
+
+  private record DocumentEncoding(int generation, @NotNull PositionEncoding encoding) {
+  }
 
   private LspContext(@NotNull MyLanguageClient client,
                      @NotNull ClientCapabilities clientCapabilities) {
     this.client = client;
     this.clientCapabilities = clientCapabilities;
+    this.positionEncoding = PositionEncoding.negotiate(
+        Optional.ofNullable(clientCapabilities.getGeneral())
+            .map(GeneralClientCapabilities::getPositionEncodings)
+            .orElse(null));
   }
 
   public static void createContext(@NotNull Project project,
                                    @NotNull MyLanguageClient client,
                                    @NotNull ClientCapabilities clientCapabilities) {
     project.putUserData(KEY, new LspContext(client, clientCapabilities));
+    sessionGeneration.incrementAndGet();
   }
 
   @NotNull
@@ -51,6 +74,58 @@ public class LspContext {
     return client;
   }
 
+  @NotNull
+  public PositionEncoding getPositionEncoding() {
+    return positionEncoding;
+  }
+
+  /**
+   * The encoding negotiated by the session of the project, or UTF-16 if there's none.
+   */
+  @NotNull
+  public static PositionEncoding getPositionEncoding(@NotNull Project project) {
+    final var context = project.getUserData(KEY);
+    return context != null ? context.positionEncoding : PositionEncoding.UTF16;
+  }
+
+  /**
+   * The encoding of the positions in the document. The documents aren't bound to projects,
+   * so it's looked up by the project of the document's file if the sessions have negotiated different encodings.
+   * The lookup is cached in the document until a new session is created, since it's done for every conversion.
+   */
+  @NotNull
+  public static PositionEncoding getPositionEncoding(@NotNull Document doc) {
+    final var generation = sessionGeneration.get();
+    final var cached = doc.getUserData(DOCUMENT_ENCODING_KEY);
+    if (cached != null && cached.generation() == generation) {
+      return cached.encoding();
+    }
+    final var result = lookUpPositionEncoding(doc);
+    doc.putUserData(DOCUMENT_ENCODING_KEY, new DocumentEncoding(generation, result));
+    return result;
+  }
+
+  @NotNull
+  private static PositionEncoding lookUpPositionEncoding(@NotNull Document doc) {
+    PositionEncoding result = null;
+    for (var project : ProjectManager.getInstance().getOpenProjects()) {
+      final var context = project.getUserData(KEY);
+      if (context == null) {
+        continue;
+      }
+      if (result == null) {
+        result = context.positionEncoding;
+      } else if (result != context.positionEncoding) {
+        return Optional.ofNullable(FileDocumentManager.getInstance().getFile(doc))
+            .map(file -> ProjectLocator.getInstance().guessProjectForFile(file))
+            .map(fileProject -> fileProject.getUserData(KEY))
+            .map(fileContext -> fileContext.positionEncoding)
+            .orElse(PositionEncoding.UTF16);
+      }
+    }
+    return result != null ? result : PositionEncoding.UTF16;
+  }
+
   @Nullable
   public String getConfigValue(@NotNull String key) {
     return config.get(key);
@@ -22,7 +22,9 @@ import org.rri.ideals.server.diagnostics.DiagnosticsListener;
 import org.rri.ideals.server.util.Metrics;
 import org.rri.ideals.server.util.MiscUtil;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -30,6 +32,9 @@ import java.util.concurrent.TimeoutException;
 
 public class LspServer implements LanguageServer, LanguageClientAware, LspSession, DumbService.DumbModeListener {
   private final static Logger LOG = Logger.getInstance(LspServer.class);
+  // where the collected metrics are written on shutdown, nothing is written if not set
+  public static final String METRICS_FILE_PROPERTY = "ideals.metrics.file";
+  private static final String WATCHED_FILES_REGISTRATION_ID = "ideals.watchedFiles";
   private final MyTextDocumentService myTextDocumentService = new MyTextDocumentService(this);
   private final MyWorkspaceService myWorkspaceService = new MyWorkspaceService(this);
 
@@ -84,10 +89,36 @@ public class LspServer implements LanguageServer, LanguageClientAware, LspSessio
         LOG.info("LSP was initialized. Project: " + project);
       });
 
-      return new InitializeResult(defaultServerCapabilities());
+      final var capabilities = defaultServerCapabilities();
+      capabilities.setPositionEncoding(LspContext.getContext(project).getPositionEncoding().getKind());
+      return new InitializeResult(capabilities);
     });
   }
 
+  @Override
+  public void initialized(InitializedParams params) {
+    final var project = this.project;
+    if (project == null) {
+      return;
+    }
+    final boolean dynamicWatchers = Optional.ofNullable(LspContext.getContext(project).getClientCapabilities().getWorkspace())
+        .map(WorkspaceClientCapabilities::getDidChangeWatchedFiles)
+        .map(DidChangeWatchedFilesCapabilities::getDynamicRegistration)
+        .orElse(false);
+    if (!dynamicWatchers) {
+      LOG.info("Client doesn't support dynamic registration of file watchers, changes made outside the editor may go unnoticed");
+      return;
+    }
+
+    final var options = new DidChangeWatchedFilesRegistrationOptions(List.of(new FileSystemWatcher(Either.forLeft("**/*"))));
+    getClient().registerCapability(new RegistrationParams(List.of(
+            new Registration(WATCHED_FILES_REGISTRATION_ID, "workspace/didChangeWatchedFiles", options))))
+        .exceptionally(e -> {
+          LOG.warn("Couldn't register file watchers", e);
+          return null;
+        });
+  }
+
   @NotNull
   private CompletionOptions defaultCompletionOptions() {
     var completionOptions = new CompletionOptions(true, List.of(".", "@"));
@@ -180,6 +211,14 @@ public class LspServer implements LanguageServer, LanguageClientAware, LspSessio
       });
       ProjectService.getInstance().closeProject(project);
       this.project = null;
+      dumpMetrics();
+    }
+  }
+
+  private static void dumpMetrics() {
+    final var metricsFile = System.getProperty(METRICS_FILE_PROPERTY);
+    if (metricsFile != null && !metricsFile.isBlank()) {
+      Metrics.dumpTo(Path.of(metricsFile));
     }
   }
 
@@ -1,36 +1,60 @@
 package org.rri.ideals.server;
 
-import com.intellij.codeInsight.daemon.impl.EditorTracker;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.command.CommandProcessor;
 import com.intellij.openapi.command.UndoConfirmationPolicy;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
-import com.intellij.openapi.fileEditor.FileEditorManager;
-import com.intellij.openapi.fileEditor.OpenFileDescriptor;
-import com.intellij.openapi.fileEditor.TextEditor;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.impl.DocumentCommitProcessor;
+import com.intellij.psi.impl.PsiDocumentManagerBase;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.util.LineIndex;
+import org.rri.ideals.server.util.Metrics;
 import org.rri.ideals.server.util.MiscUtil;
-import org.rri.ideals.server.util.TextUtil;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service(Service.Level.PROJECT)
 final public class ManagedDocuments {
   private static final Logger LOG = Logger.getInstance(ManagedDocuments.class);
+  public static final String BATCHED_CHANGES_COUNTER = "documents.changes.batched";
+  public static final String AVOIDED_COMMITS_COUNTER = "documents.commits.avoided";
+  public static final String COMMIT_WAITS_COUNTER = "documents.commits.waited";
+  public static final String COMMITS_COUNTER = "documents.commits.forced";
+  public static final String SAVE_REFRESH_HISTOGRAM = "documents.save.refresh";
+  public static final String LARGE_FILES_COUNTER = "documents.largeFiles";
+  public static final String REORDERED_CHANGES_COUNTER = "documents.changes.reordered";
+  public static final String RESYNCS_COUNTER = "documents.resyncs";
+
   private final ConcurrentHashMap<LspPath, VersionedTextDocumentIdentifier> docs = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<LspPath, PendingChanges> pendingChanges = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<LspPath, CompletableFuture<Void>> commitBarriers = new ConcurrentHashMap<>();
+  private final Set<LspPath> largeFiles = ConcurrentHashMap.newKeySet();
+  // the time the resync of a document was requested at, only accessed in the EDT, where the changes are applied
+  private final ConcurrentHashMap<LspPath, Long> awaitingResync = new ConcurrentHashMap<>();
+  // taken from one counter, so that a reopened document never gets the sequence number it had before
+  private final AtomicLong changeCounter = new AtomicLong();
+  private final ConcurrentHashMap<LspPath, Long> changeSequences = new ConcurrentHashMap<>();
 
   @NotNull
   private final Project project;
@@ -52,6 +76,7 @@ final public class ManagedDocuments {
       LOG.warn("URI was opened again without being closed, resetting: " + path);
       docs.remove(path);
     }
+    forgetChangeTracking(path);
     LOG.debug("Handling textDocument/didOpen for: " + path);
 
     // forcibly refresh file system to handle newly created files
@@ -61,113 +86,351 @@ final public class ManagedDocuments {
       return;
     }
 
-    ApplicationManager.getApplication().invokeAndWait(MiscUtil.asWriteAction(() -> {
-      final var editor = getSelectedEditor(virtualFile);
-      final var doc = Optional.ofNullable(editor)
-          .map(Editor::getDocument)
-          .orElse(null);
+    final var largeFileThreshold = getLargeFileThreshold();
+    final var largeFile = textDocument.getText().length() > largeFileThreshold;
+    if (largeFile) {
+      LOG.info("Opening in large file mode: " + path);
+      Metrics.increment(LARGE_FILES_COUNTER);
+      largeFiles.add(path);
+    } else {
+      largeFiles.remove(path);
+    }
 
+    ApplicationManager.getApplication().invokeAndWait(() -> {
+      final var doc = FileDocumentManager.getInstance().getDocument(virtualFile);
       if (doc == null)
         return; // todo handle
 
       if (doc.isWritable()) {
         // set IDEA's copy of the document to have the text with potential unsaved in-memory changes from the client
-        doc.setText(normalizeText(textDocument.getText()));
-        PsiDocumentManager.getInstance(project).commitDocument(doc);
+        ApplicationManager.getApplication().runWriteAction(() -> doc.setText(normalizeText(textDocument.getText())));
+        if (!largeFile) {
+          commitInBackground(path, doc);
+        }
       }
 
-      // In a unit test, active editors are not updated automatically
-      if (ApplicationManager.getApplication().isUnitTestMode()) {
-        final var editors = new ArrayList<Editor>(EditorTracker.getInstance(project).getActiveEditors());
-        editors.add(editor);
-        EditorTracker.getInstance(project).setActiveEditors(editors);
+      project.getService(UnmanagedDocuments.class).forget(virtualFile);
+
+      // the daemon only highlights files having an editor, so a just opened document gets one from the pool;
+      // large files are left without highlighting
+      if (!largeFile) {
+        project.getService(EditorPool.class).acquire(virtualFile);
       }
+    });
 
-/*  todo not sure if we need this
-        if (client != null) {
-          server?.let { registerIndexNotifier(project, client, it) }
-          val projectSdk = ProjectRootManager.getInstance(project).projectSdk
-          if (projectSdk == null) {
-            warnNoJdk(client)
-          }
-        }
-        true
-*/
-    }));
+    if (largeFile) {
+      LspContext.getContext(project).getClient().notifyLargeFileMode(
+          new LargeFileModeParams(uri, textDocument.getText().length(), largeFileThreshold));
+    }
 
     var docVersion = Optional.of(textDocument.getVersion())
         .filter(version -> version != 0)
         .orElse(null);
     docs.put(path, new VersionedTextDocumentIdentifier(uri, docVersion));
+    changeSequences.put(path, changeCounter.incrementAndGet());
   }
 
 
+  /**
+   * Changes are applied in the EDT asynchronously. Changes of the same document arriving before the previous ones
+   * are applied are batched into a single write command. PSI is committed in background afterwards,
+   * and the requests which need it wait for that in {@link #waitForChanges}.
+   */
   public void updateDocument(@NotNull DidChangeTextDocumentParams params) {
-    var textDocument = params.getTextDocument();
-    var contentChanges = params.getContentChanges();
-
-    String uri = textDocument.getUri();
+    String uri = params.getTextDocument().getUri();
     if (!canAccept(uri))
       return;
 
     final var path = LspPath.fromLspUri(uri);
 
-    var managedTextDocId = docs.get(path);
-    if (managedTextDocId == null)
+    if (!docs.containsKey(path))
       throw new IllegalArgumentException("document isn't being managed: " + uri);
 
-    // Version number of our document should be (theirs - number of content changes)
-    // If stored version is null, this means the document has been just saved or opened
-    if (managedTextDocId.getVersion() != null && managedTextDocId.getVersion() != (textDocument.getVersion() - contentChanges.size())) {
-      LOG.warn(String.format("Version mismatch on document change - " +
-          "ours: %d, theirs: %d", managedTextDocId.getVersion(), textDocument.getVersion()));
+    // advanced when the change is received rather than applied, so the requests sent after it never see the old one
+    changeSequences.put(path, changeCounter.incrementAndGet());
+
+    final var created = new PendingChanges();
+    final var batch = pendingChanges.compute(path, (key, existing) -> {
+      final var result = existing != null ? existing : created;
+      result.changes.add(params);
+      return result;
+    });
+
+    if (batch != created) {
+      Metrics.increment(BATCHED_CHANGES_COUNTER);
       return;
     }
 
-    var file = MiscUtil.resolvePsiFile(project, path);
+    final var application = ApplicationManager.getApplication();
+    if (application.isDispatchThread()) {
+      applyPendingChanges(path);
+    } else {
+      application.invokeLater(() -> applyPendingChanges(path));
+    }
+  }
+
+  /**
+   * A number which changes with every change of the document received from the client,
+   * including the ones not applied yet. Unlike the modification stamp of the document, it may be read right away.
+   *
+   * @return -1 if the document isn't being managed
+   */
+  public long getChangeSequence(@NotNull LspPath path) {
+    return changeSequences.getOrDefault(path, -1L);
+  }
+
+  /**
+   * Large files are kept in sync with the client, but get no editor and so no highlighting.
+   * Their PSI is only committed when a request needs it, and the expensive features are skipped
+   * (see {@link org.rri.ideals.server.util.AsyncExecutor.Builder#skipForLargeFiles}).
+   */
+  public boolean isLargeFile(@NotNull LspPath path) {
+    return largeFiles.contains(path);
+  }
+
+  private static int getLargeFileThreshold() {
+    return Registry.intValue("ideals.documents.largeFileKb", 1024) * 1024;
+  }
+
+  /**
+   * Waits until the received changes of the document are applied and its PSI is committed.
+   * Only this document is waited for, the commit of the others doesn't matter.
+   */
+  public void waitForChanges(@NotNull LspPath path, @NotNull CancelChecker cancelToken) {
+    flushPendingChanges(path, cancelToken);
+
+    if (largeFiles.contains(path)) {
+      // there is no background commit for large files
+      commitNow(path);
+      return;
+    }
 
-    if (file == null) {
-      LOG.warn("Couldn't resolve PSI file at: " + path);
+    final var barrier = commitBarriers.get(path);
+    if (barrier == null || barrier.isDone()) {
       return;
     }
 
-    // all updates must go through CommandProcessor
-    ApplicationManager.getApplication().invokeAndWait(() -> CommandProcessor.getInstance().executeCommand(
-        project, MiscUtil.asWriteAction(() -> {
-          var doc = MiscUtil.getDocument(file);
+    Metrics.increment(COMMIT_WAITS_COUNTER);
+    final var waitMs = Registry.intValue("ideals.documents.commitWaitMs", 500);
+    if (!await(barrier, cancelToken, waitMs)) {
+      // the background commit is late (or disabled), so it's done right away
+      commitNow(path);
+    }
+  }
+
+  private void commitNow(@NotNull LspPath path) {
+    final var virtualFile = path.findVirtualFile();
+    final var doc = virtualFile != null ? FileDocumentManager.getInstance().getCachedDocument(virtualFile) : null;
+    if (doc != null && !PsiDocumentManager.getInstance(project).isCommitted(doc)) {
+      Metrics.increment(COMMITS_COUNTER);
+      ApplicationManager.getApplication().invokeAndWait(() -> PsiDocumentManager.getInstance(project).commitDocument(doc));
+    }
+  }
+
+  private void flushPendingChanges(@NotNull LspPath path, @Nullable CancelChecker cancelToken) {
+    final var batch = pendingChanges.get(path);
+    if (batch == null) {
+      return;
+    }
+
+    if (ApplicationManager.getApplication().isDispatchThread()) {
+      applyPendingChanges(path);
+      return;
+    }
+
+    await(batch.applied, cancelToken, Long.MAX_VALUE);
+  }
+
+  /**
+   * @return false if the timeout has elapsed
+   */
+  private static boolean await(@NotNull CompletableFuture<Void> future, @Nullable CancelChecker cancelToken, long timeoutMs) {
+    final var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMs, TimeUnit.DAYS.toMillis(1)));
+    while (System.nanoTime() < deadline) {
+      if (cancelToken != null) {
+        cancelToken.checkCanceled();
+      }
+      try {
+        future.get(10, TimeUnit.MILLISECONDS);
+        return true;
+      } catch (TimeoutException ignored) {
+      } catch (InterruptedException | ExecutionException e) {
+        throw MiscUtil.wrap(e);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Starts reparsing the changed document in background; the barrier is passed once the document is committed.
+   * Must be called in the EDT.
+   */
+  private void commitInBackground(@NotNull LspPath path, @NotNull Document doc) {
+    final var psiDocumentManager = (PsiDocumentManagerBase) PsiDocumentManager.getInstance(project);
+    if (psiDocumentManager.isCommitted(doc)) {
+      commitBarriers.remove(path);
+      return;
+    }
+    final var barrier = new CompletableFuture<Void>();
+    commitBarriers.put(path, barrier);
+    psiDocumentManager.performForCommittedDocument(doc, () -> barrier.complete(null));
+
+    final var viewProvider = psiDocumentManager.getCachedViewProvider(doc);
+    if (viewProvider != null) {
+      ApplicationManager.getApplication().getService(DocumentCommitProcessor.class).commitAsynchronously(
+          project, psiDocumentManager, doc, "LSP: UpdateDocument", ModalityState.defaultModalityState(), viewProvider);
+    }
+  }
+
+  private void applyPendingChanges(@NotNull LspPath path) {
+    final var batch = pendingChanges.remove(path);
+    if (batch == null) {
+      return; // applied already
+    }
+
+    try {
+      final var largeFile = largeFiles.contains(path);
+      final Document doc;
+      if (largeFile) {
+        // PSI of a large file isn't needed
+        final var virtualFile = path.findVirtualFile();
+        doc = virtualFile != null ? FileDocumentManager.getInstance().getCachedDocument(virtualFile) : null;
+      } else {
+        var file = MiscUtil.resolvePsiFile(project, path);
+
+        if (file == null) {
+          LOG.warn("Couldn't resolve PSI file at: " + path);
+          return;
+        }
+
+        doc = MiscUtil.getDocument(file);
+      }
+
+      if (doc == null) {
+        LOG.warn("Attempted to get Document for updating but it was null: " + path);
+        return;
+      }
+
+      // the commit of the previous changes hasn't happened yet, and now it's only needed for the new ones
+      if (!largeFile && !PsiDocumentManager.getInstance(project).isCommitted(doc)) {
+        Metrics.increment(AVOIDED_COMMITS_COUNTER);
+      }
+
+      // all updates must go through CommandProcessor
+      CommandProcessor.getInstance().executeCommand(
+          project,
+          MiscUtil.asWriteAction(() -> inVersionOrder(batch.changes).forEach(params -> applyChanges(path, doc, params))),
+          "LSP: UpdateDocument", "", UndoConfirmationPolicy.REQUEST_CONFIRMATION);
+
+      if (!largeFile) {
+        commitInBackground(path, doc);
+        // the changed document is highlighted again if its editor has been evicted from the pool
+        final var virtualFile = FileDocumentManager.getInstance().getFile(doc);
+        if (virtualFile != null && docs.containsKey(path)) {
+          project.getService(EditorPool.class).reacquire(virtualFile);
+        }
+      }
+    } finally {
+      batch.applied.complete(null);
+    }
+  }
+
+  /**
+   * The changes of a batch are applied in the order of their versions, which reorders the ones received
+   * out of order while waiting for the EDT. A change received after a greater version is applied is outdated.
+   */
+  @NotNull
+  private static List<DidChangeTextDocumentParams> inVersionOrder(@NotNull List<DidChangeTextDocumentParams> changes) {
+    for (int i = 1; i < changes.size(); i++) {
+      if (changes.get(i - 1).getTextDocument().getVersion() > changes.get(i).getTextDocument().getVersion()) {
+        Metrics.increment(REORDERED_CHANGES_COUNTER);
+        final var sorted = new ArrayList<>(changes);
+        sorted.sort(Comparator.comparingInt(params -> params.getTextDocument().getVersion()));
+        return sorted;
+      }
+    }
+    return changes;
+  }
 
-          if (doc == null) {
-            LOG.warn("Attempted to get Document for updating but it was null: " + path);
-            return;
-          }
+  private void applyChanges(@NotNull LspPath path, @NotNull Document doc, @NotNull DidChangeTextDocumentParams params) {
+    var textDocument = params.getTextDocument();
+    var contentChanges = params.getContentChanges();
 
-        /*  todo make it configurable
-          if(managedTextDoc.contents != doc.text) {
-            val change = Diff.buildChanges(managedTextDoc.contents, doc.text)
-            LOG.error("Ground truth differed upon change! Old: \n${managedTextDoc.contents}\nNew: \n${doc.text}")
-            return@Runnable
-          }
-          LOG.debug("Doc before:\n\n${doc.text}\n\n")
-*/
+    var managedTextDocId = docs.get(path);
+    if (managedTextDocId == null) {
+      LOG.warn("Document was closed before its changes were applied: " + path);
+      return;
+    }
 
-          if (!doc.isWritable()) {
-            LOG.warn("Document isn't writable: " + path);
-            return;
-          }
+    final var resyncing = isAwaitingResync(path);
+    final var fullText = !contentChanges.isEmpty() && contentChanges.get(0).getRange() == null;
+    if (managedTextDocId.getVersion() != null) {
+      // Versions only have to increase, not to be consecutive, so any greater one is the next change
+      // The full text sent in reply to the resync request may have the version of the last change
+      // If stored version is null, this means the document has been just saved or opened
+      final int ours = managedTextDocId.getVersion();
+      final int theirs = textDocument.getVersion();
+      if (theirs < ours || (theirs == ours && !(resyncing && fullText))) {
+        LOG.warn(String.format("Ignoring outdated document change - ours: %d, theirs: %d", ours, theirs));
+        return;
+      }
+    }
 
-          try {
-            applyContentChangeEventChanges(doc, contentChanges);
-          } catch (Exception e) {
-            LOG.error("Error on documentChange", e);
-          }
+    if (!doc.isWritable()) {
+      LOG.warn("Document isn't writable: " + path);
+      return;
+    }
 
-          // Commit changes to the PSI tree, but not to disk
-          PsiDocumentManager.getInstance(project).commitDocument(doc);
+    if (resyncing) {
+      if (fullText) {
+        awaitingResync.remove(path);
+      } else {
+        LOG.warn("Applying a change to a document awaiting resync, it may differ from the client's one until then: " + path);
+      }
+    }
 
-          // Update the ground truth
-          docs.put(path, textDocument);
+    try {
+      if (!applyContentChangeEventChanges(doc, contentChanges)) {
+        requestResync(path, "a change is beyond the end of the document");
+        return;
+      }
+    } catch (Exception e) {
+      LOG.error("Error on documentChange", e);
+    }
 
-        }), "LSP: UpdateDocument", "", UndoConfirmationPolicy.REQUEST_CONFIRMATION));
+    // Update the ground truth
+    docs.put(path, textDocument);
+  }
+
+  /**
+   * An unanswered resync request expires, so that a client not supporting it gets another one
+   * at the next change which doesn't fit the document.
+   */
+  private boolean isAwaitingResync(@NotNull LspPath path) {
+    final var requestedAt = awaitingResync.get(path);
+    if (requestedAt == null) {
+      return false;
+    }
+    final var timeoutMs = Registry.intValue("ideals.documents.resyncTimeoutMs", 5000);
+    if (System.nanoTime() - requestedAt > TimeUnit.MILLISECONDS.toNanos(timeoutMs)) {
+      LOG.warn("The client hasn't sent the text of the document requested for resync: " + path);
+      awaitingResync.remove(path);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Asks the client to send the full text of the document. The changes received until then are still applied,
+   * as far as they fit the document.
+   */
+  private void requestResync(@NotNull LspPath path, @NotNull String reason) {
+    LOG.warn("Document is out of sync with the client (" + reason + "), requesting its text: " + path);
+    if (!isAwaitingResync(path)) {
+      awaitingResync.put(path, System.nanoTime());
+      Metrics.increment(RESYNCS_COUNTER);
+      LspContext.getContext(project).getClient().notifyResyncDocument(new TextDocumentIdentifier(path.toLspUri()));
+    }
   }
 
   public void syncDocument(@NotNull TextDocumentIdentifier textDocument) {
@@ -177,25 +440,36 @@ final public class ManagedDocuments {
       return;
 
     var path = LspPath.fromLspUri(uri);
+    flushPendingChanges(path, null);
 
     if (!docs.containsKey(path)) {
       LOG.warn("Tried handling didSave, but the document isn't being managed: " + path);
       return;
     }
 
-    ApplicationManager.getApplication().invokeAndWait(
-        MiscUtil.asWriteAction(() -> MiscUtil.invokeWithPsiFileInReadAction(project, path, (psi) -> {
-          var doc = MiscUtil.getDocument(psi);
-          if (doc == null)
-            return; // todo handle
+    final var virtualFile = path.findVirtualFile();
+    if (virtualFile == null) {
+      LOG.warn("Couldn't find virtual file: " + path);
+      return;
+    }
+
+    // only the saved file is refreshed (synchronously, since its document is reloaded right after)
+    final var refreshStart = System.nanoTime();
+    virtualFile.refresh(false, false);
+    Metrics.recordLatency(SAVE_REFRESH_HISTOGRAM, System.nanoTime() - refreshStart);
+
+    ApplicationManager.getApplication().invokeAndWait(MiscUtil.asWriteAction(() -> {
+      final var doc = FileDocumentManager.getInstance().getCachedDocument(virtualFile);
+      if (doc == null)
+        return; // nothing is loaded, so there's nothing to reload
 
-          VirtualFileManager.getInstance().refreshWithoutFileWatcher(false);
-          FileDocumentManager.getInstance().reloadFromDisk(doc);
-          PsiDocumentManager.getInstance(project).commitAllDocuments();
-        })));
+      FileDocumentManager.getInstance().reloadFromDisk(doc);
+      PsiDocumentManager.getInstance(project).commitDocument(doc);
+    }));
 
     // drop stored version to bring it in sync with the client (if there was any mismatch)
     docs.put(path, new VersionedTextDocumentIdentifier(uri, null));
+    changeSequences.put(path, changeCounter.incrementAndGet());
   }
 
   public void stopManaging(@NotNull TextDocumentIdentifier textDocument) {
@@ -204,25 +478,34 @@ final public class ManagedDocuments {
       return;
 
     var path = LspPath.fromLspUri(uri);
+    flushPendingChanges(path, null);
 
     final var virtualFile = path.findVirtualFile();
     if (virtualFile != null) {
-      ApplicationManager.getApplication().invokeAndWait(() -> {
-        FileEditorManager.getInstance(project).closeFile(virtualFile);
-      });
+      ApplicationManager.getApplication().invokeAndWait(() -> project.getService(EditorPool.class).release(virtualFile));
     }
 
+    commitBarriers.remove(path);
+    largeFiles.remove(path);
+    forgetChangeTracking(path);
+    changeSequences.remove(path);
     if (docs.remove(path) == null) {
       LOG.warn("Attempted to close document without opening it at: " + path);
     }
+
+    // the document of a closed file is retained within the memory budget only
+    final var closedDocument = virtualFile != null ? FileDocumentManager.getInstance().getCachedDocument(virtualFile) : null;
+    if (closedDocument != null) {
+      project.getService(UnmanagedDocuments.class).touch(virtualFile, closedDocument);
+    }
   }
 
-  public @Nullable Editor getSelectedEditor(VirtualFile virtualFile) {
-    final var fileEditorManager = FileEditorManager.getInstance(project);
+  private void forgetChangeTracking(@NotNull LspPath path) {
+    awaitingResync.remove(path);
+  }
 
-    return Optional.ofNullable(FileEditorManager.getInstance(project).getSelectedEditor(virtualFile))
-        .map(fileEditor -> ((TextEditor) fileEditor).getEditor())
-        .orElseGet(() -> fileEditorManager.openTextEditor(new OpenFileDescriptor(project, virtualFile, 0), false));
+  public boolean isManaged(@NotNull LspPath path) {
+    return docs.containsKey(path);
   }
 
   @SuppressWarnings("BooleanMethodIsAlwaysInverted")
@@ -230,24 +513,59 @@ final public class ManagedDocuments {
     return uri.matches("^(file|jar|jrt):/.*");
   }
 
-  private void applyContentChangeEventChanges(@NotNull Document doc, @NotNull List<TextDocumentContentChangeEvent> contentChanges) {
-    contentChanges.forEach((it) -> applyChange(doc, it));
-  }
+  /**
+   * The ranges of all changes are checked before any of them is applied. The lines are counted
+   * as if the previous changes were applied, since each range refers to the text after them.
+   *
+   * @return false if a change is beyond the last line, which means the document has drifted from the client's one
+   */
+  private boolean applyContentChangeEventChanges(@NotNull Document doc,
+                                                 @NotNull List<TextDocumentContentChangeEvent> contentChanges) {
+    var lineCount = Math.max(1, doc.getLineCount());
+    for (var change : contentChanges) {
+      final var range = change.getRange();
+      final var newLines = StringUtil.countNewLines(normalizeText(change.getText()));
+      if (range == null) {
+        lineCount = newLines + 1;
+        continue;
+      }
+      final var start = range.getStart();
+      final var end = range.getEnd();
+      if (start.getLine() < 0 || end.getLine() >= lineCount || start.getLine() > end.getLine()
+          || (start.getLine() == end.getLine() && start.getCharacter() > end.getCharacter())) {
+        return false;
+      }
+      lineCount += newLines - (end.getLine() - start.getLine());
+    }
 
-  private static void applyChange(@NotNull Document doc, TextDocumentContentChangeEvent change) {
-    final var text = normalizeText(change.getText());
-    if (change.getRange() == null) {
-      // Change is the full insertText of the document
-      doc.setText(text);
-    } else {
-      var textRange = TextUtil.toTextRange(doc, change.getRange());
+    final var encoding = LspContext.getPositionEncoding(project);
+    for (var change : contentChanges) {
+      final var text = normalizeText(change.getText());
+      final var range = change.getRange();
+      if (range == null) {
+        // Change is the full insertText of the document
+        doc.setText(text);
+        continue;
+      }
 
-      doc.replaceString(textRange.getStartOffset(), textRange.getEndOffset(), text);
+      // characters beyond the ends of their lines mean the ends of the lines
+      final var startOffset = LineIndex.toOffset(doc, range.getStart().getLine(), range.getStart().getCharacter(), encoding);
+      final var endOffset = LineIndex.toOffset(doc, range.getEnd().getLine(), range.getEnd().getCharacter(), encoding);
+      doc.replaceString(startOffset, endOffset, text);
     }
+    return true;
   }
 
   @NotNull
   private static String normalizeText(@NotNull String text) {
     return text.replace("\r\n", "\n");
   }
+
+  // the changes are only added inside the map operations, and read after the batch is removed from the map
+  private static class PendingChanges {
+    @NotNull
+    final List<DidChangeTextDocumentParams> changes = new ArrayList<>();
+    @NotNull
+    final CompletableFuture<Void> applied = new CompletableFuture<>();
+  }
 }
@@ -1,5 +1,6 @@
 package org.rri.ideals.server;
 
+import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
 import org.eclipse.lsp4j.services.LanguageClient;
 
@@ -21,6 +22,23 @@ public interface MyLanguageClient extends LanguageClient {
   @JsonNotification("idea/indexFinished")
   void notifyIndexFinished();
 
+  /**
+   * The idea/largeFileMode notification is sent from the server to the client to notify
+   * the client that a document has been opened in large file mode: it's kept in sync,
+   * but diagnostics and the other features depending on code analysis are disabled for it.
+   */
+  @JsonNotification("idea/largeFileMode")
+  void notifyLargeFileMode(LargeFileModeParams params);
+
+  /**
+   * The idea/resyncDocument notification is sent from the server to the client to notify
+   * the client that the server's copy of a document has drifted from the client's one.
+   * The client is expected to reply with a textDocument/didChange carrying the full text of the document;
+   * the changes received until then are applied as far as they fit the server's copy.
+   */
+  @JsonNotification("idea/resyncDocument")
+  void notifyResyncDocument(TextDocumentIdentifier params);
+
   /**
    * The idea/buildMessages notification is sent from the server to the client to notify
    * the client that a single project build task has completed with error/warning/information messages.
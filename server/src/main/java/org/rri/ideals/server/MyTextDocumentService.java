@@ -4,9 +4,7 @@ import com.google.gson.GsonBuilder;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.concurrency.AppExecutorUtil;
 import org.eclipse.lsp4j.*;
-import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.TextDocumentService;
 import org.jetbrains.annotations.NotNull;
@@ -25,10 +23,12 @@ import org.rri.ideals.server.signature.SignatureHelpService;
 import org.rri.ideals.server.symbol.DocumentSymbolService;
 import org.rri.ideals.server.util.AsyncExecutor;
 import org.rri.ideals.server.util.Metrics;
+import org.rri.ideals.server.util.RequestLane;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class MyTextDocumentService implements TextDocumentService, ExperimentalProtocolExtensions {
 
@@ -45,7 +45,7 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
 
     final var path = LspPath.fromLspUri(textDocument.getUri());
 
-    Metrics.run(() -> "didOpen: " + path, () -> {
+    Metrics.run("textDocument/didOpen", () -> "didOpen: " + path, () -> {
       documents().startManaging(textDocument);
 
       if (DumbService.isDumb(session.getProject())) {
@@ -65,19 +65,22 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
   public void didChange(DidChangeTextDocumentParams params) {
     final var path = LspPath.fromLspUri(params.getTextDocument().getUri());
 
-    Metrics.run(() -> "didChange: " + path, () -> {
+    Metrics.run("textDocument/didChange", () -> "didChange: " + path, () -> {
+      scheduler().documentChanged(path);
       documents().updateDocument(params);
     });
   }
 
   @Override
   public void didClose(DidCloseTextDocumentParams params) {
-    documents().stopManaging(params.getTextDocument());
+    Metrics.run("textDocument/didClose", () -> "didClose: " + params.getTextDocument().getUri(),
+        () -> documents().stopManaging(params.getTextDocument()));
   }
 
   @Override
   public void didSave(DidSaveTextDocumentParams params) {
-    documents().syncDocument(params.getTextDocument());
+    Metrics.run("textDocument/didSave", () -> "didSave: " + params.getTextDocument().getUri(),
+        () -> documents().syncDocument(params.getTextDocument()));
   }
 
   @Override
@@ -106,8 +109,9 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
 
   @Override
   public CompletableFuture<List<? extends DocumentHighlight>> documentHighlight(DocumentHighlightParams params) {
-    return new DocumentHighlightCommand()
-        .runAsync(session.getProject(), params.getTextDocument(), params.getPosition());
+    return supersedable("textDocument/documentHighlight", params.getTextDocument(),
+        new DocumentHighlightCommand()
+            .runAsync(session.getProject(), params.getTextDocument(), params.getPosition()));
   }
 
   @SuppressWarnings("deprecation")
@@ -117,25 +121,32 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
     if (uri.startsWith("output:")) {
       return CompletableFuture.completedFuture(List.of());
     }
-    final var client = AsyncExecutor.<List<Either<SymbolInformation, DocumentSymbol>>>builder()
-        .cancellable(true)
-        .executorContext(session.getProject(), uri, null)
-        .build();
+    return coalesced("textDocument/documentSymbol", params.getTextDocument(), params, () -> {
+      final var client = AsyncExecutor.<List<Either<SymbolInformation, DocumentSymbol>>>builder()
+          .executorContext(session.getProject(), uri, null)
+          .method("textDocument/documentSymbol")
+          .build();
 
-    return client.compute((executorContext -> documentSymbols().computeDocumentSymbols(executorContext)));
+      return client.compute((executorContext -> documentSymbols().computeDocumentSymbols(executorContext)));
+    });
   }
 
   @Override
   public CompletableFuture<List<Either<Command, CodeAction>>> codeAction(CodeActionParams params) {
-    final var client = AsyncExecutor.<List<Either<Command, CodeAction>>>builder()
-        .executorContext(session.getProject(), params.getTextDocument().getUri(), params.getRange().getStart())
-        .build();
-
-    return client.compute(executorContext ->
-        codeActions().getCodeActions(params.getRange(), executorContext).stream()
-            .map((Function<CodeAction, Either<Command, CodeAction>>) Either::forRight)
-            .toList()
-    );
+    return coalesced("textDocument/codeAction", params.getTextDocument(), params, () -> {
+      final var client = AsyncExecutor.<List<Either<Command, CodeAction>>>builder()
+          .executorContext(session.getProject(), params.getTextDocument().getUri(), params.getRange().getStart())
+          .method("textDocument/codeAction")
+          .editorRequired(true)
+          .skipForLargeFiles(true)
+          .build();
+
+      return client.compute(executorContext ->
+          codeActions().getCodeActions(params.getRange(), executorContext).stream()
+              .map((Function<CodeAction, Either<Command, CodeAction>>) Either::forRight)
+              .toList()
+      );
+    });
   }
 
 
@@ -145,6 +156,9 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
         .fromJson(unresolved.getData().toString(), ActionData.class);
     final var client = AsyncExecutor.<CodeAction>builder()
         .executorContext(session.getProject(), actionData.getUri(), actionData.getRange().getStart())
+        .method("codeAction/resolve")
+        .editorRequired(true)
+        .skipForLargeFiles(true)
         .build();
 
     return client.compute(executorContext -> {
@@ -154,6 +168,28 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
     });
   }
 
+  @NotNull
+  private <T> CompletableFuture<T> supersedable(@NotNull String method,
+                                                @NotNull TextDocumentIdentifier textDocument,
+                                                @NotNull CompletableFuture<T> request) {
+    return scheduler().schedule(method, LspPath.fromLspUri(textDocument.getUri()), request);
+  }
+
+  @NotNull
+  private <T> CompletableFuture<T> coalesced(@NotNull String method,
+                                             @NotNull TextDocumentIdentifier textDocument,
+                                             @NotNull Object params,
+                                             @NotNull Supplier<@NotNull CompletableFuture<T>> request) {
+    final var path = LspPath.fromLspUri(textDocument.getUri());
+    return session.getProject().getService(RequestCoalescer.class)
+        .coalesce(method, path, RequestCoalescer.getDocumentStamp(session.getProject(), path), params, request);
+  }
+
+  @NotNull
+  private RequestScheduler scheduler() {
+    return session.getProject().getService(RequestScheduler.class);
+  }
+
   @NotNull
   private ManagedDocuments documents() {
     return session.getProject().getService(ManagedDocuments.class);
@@ -182,8 +218,7 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
   @Override
   @NotNull
   public CompletableFuture<CompletionItem> resolveCompletionItem(@NotNull CompletionItem unresolved) {
-    return CompletableFutures.computeAsync(
-        AppExecutorUtil.getAppExecutorService(),
+    return RequestLane.INTERACTIVE.computeAsync("completionItem/resolve",
         (cancelChecker) ->
             completions().resolveCompletion(unresolved, cancelChecker)
     );
@@ -193,23 +228,29 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
   @NotNull
   public CompletableFuture<Either<List<CompletionItem>, CompletionList>> completion(@NotNull CompletionParams params) {
     final var client = AsyncExecutor.<Either<List<CompletionItem>, CompletionList>>builder()
-        .cancellable(true)
         .executorContext(session.getProject(), params.getTextDocument().getUri(), params.getPosition())
+        .method("textDocument/completion")
+        .editorRequired(true)
+        .skipForLargeFiles(true)
         .build();
 
-    return client.compute((executorContext -> Either.forLeft(completions().computeCompletions(executorContext))));
+    return supersedable("textDocument/completion", params.getTextDocument(),
+        client.compute((executorContext -> Either.forRight(completions().computeCompletions(executorContext)))));
   }
 
   @Override
   @NotNull
   public CompletableFuture<SignatureHelp> signatureHelp(SignatureHelpParams params) {
     final var client = AsyncExecutor.<SignatureHelp>builder()
-        .cancellable(true)
         .executorContext(session.getProject(), params.getTextDocument().getUri(), params.getPosition())
+        .method("textDocument/signatureHelp")
+        .editorRequired(true)
+        .skipForLargeFiles(true)
         .build();
     final var signature = signature();
 
-    return client.compute((signature::computeSignatureHelp));
+    return supersedable("textDocument/signatureHelp", params.getTextDocument(),
+        client.compute((signature::computeSignatureHelp)));
   }
 
 
@@ -239,8 +280,9 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
 
   @Override
   public CompletableFuture<Hover> hover(HoverParams params) {
-    return new HoverCommand()
-              .runAsync(session.getProject(), params.getTextDocument(), params.getPosition());
+    return supersedable("textDocument/hover", params.getTextDocument(),
+        new HoverCommand()
+            .runAsync(session.getProject(), params.getTextDocument(), params.getPosition()));
   }
 
   @Override
@@ -254,4 +296,9 @@ public class MyTextDocumentService implements TextDocumentService, ExperimentalP
     return new RunnablesCommand()
             .runAsync(session.getProject(), params);
   }
+
+  @Override
+  public CompletableFuture<Metrics.Snapshot> metrics() {
+    return CompletableFuture.completedFuture(Metrics.snapshot());
+  }
 }
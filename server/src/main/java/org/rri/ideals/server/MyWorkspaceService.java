@@ -1,7 +1,5 @@
 package org.rri.ideals.server;
 
-import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.vfs.VirtualFileManager;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.WorkspaceService;
@@ -10,6 +8,7 @@ import org.rri.ideals.server.symbol.WorkspaceSymbolService;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 public class MyWorkspaceService implements WorkspaceService {
   @NotNull
@@ -26,19 +25,23 @@ public class MyWorkspaceService implements WorkspaceService {
 
   @Override
   public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
-
+    fileChanges().enqueue(params.getChanges());
   }
 
   @Override
   public void didRenameFiles(RenameFilesParams params) {
-    // Refresh file system to avoid false positives in diagnostics (see #38)
-    //
-    // TODO
-    //  it would probably be better to move this into didOpen
-    //  because the order of and delays between calls didClose/didOpen/didRenameFiles
-    //  during file rename seems client-specific
-    //  so VFS refresh may happen too late and thus have no effect
-    ApplicationManager.getApplication().invokeAndWait(() -> VirtualFileManager.getInstance().syncRefresh());
+    // Refresh file system to avoid false positives in diagnostics (see #38).
+    // The renamed files are refreshed right away rather than debounced,
+    // since the client may reopen them under the new names right after this notification.
+    fileChanges().refreshNow(params.getFiles().stream()
+        .flatMap(rename -> Stream.of(rename.getOldUri(), rename.getNewUri()))
+        .filter(uri -> uri.startsWith("file:"))
+        .map(LspPath::fromLspUri)
+        .toList());
+  }
+
+  private @NotNull FileChangesRefresher fileChanges() {
+    return session.getProject().getService(FileChangesRefresher.class);
   }
 
   private @NotNull WorkspaceSymbolService workspaceSymbol() {
@@ -0,0 +1,148 @@
+package org.rri.ideals.server;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of identical requests: clients often send the same request several times
+ * at once (e.g. {@code documentSymbol} for the outline, breadcrumbs and sticky scroll), and all of them
+ * may share one computation.
+ * <p>
+ * Requests are identical if they have the same method, document, document state (see {@link #getDocumentStamp})
+ * and parameters.
+ * Every caller gets its own future, so that cancelling it doesn't affect the others;
+ * the shared computation is cancelled when all of its callers are.
+ */
+@Service(Service.Level.PROJECT)
+final public class RequestCoalescer {
+  private static final Logger LOG = Logger.getInstance(RequestCoalescer.class);
+
+  public static final String HITS_COUNTER = "requests.coalesced.hits";
+  public static final String MISSES_COUNTER = "requests.coalesced.misses";
+
+  private final ConcurrentHashMap<RequestKey, Flight<?>> inFlight = new ConcurrentHashMap<>();
+
+  @NotNull
+  public <T> CompletableFuture<T> coalesce(@NotNull String method,
+                                           @NotNull LspPath path,
+                                           long documentStamp,
+                                           @Nullable Object params,
+                                           @NotNull Supplier<@NotNull CompletableFuture<T>> computation) {
+    final var key = new RequestKey(method, path, documentStamp, params);
+    final var created = new Flight<T>();
+
+    @SuppressWarnings("unchecked") final var flight = (Flight<T>) inFlight.compute(key, (k, existing) -> {
+      if (existing != null && !existing.computation.isDone()) {
+        existing.subscribers++;
+        return existing;
+      }
+      return created;
+    });
+
+    if (flight != created) {
+      LOG.debug("Joined identical in-flight request: " + method + " " + path);
+      Metrics.increment(HITS_COUNTER);
+      Metrics.increment(HITS_COUNTER + "." + method);
+    } else {
+      Metrics.increment(MISSES_COUNTER);
+      Metrics.increment(MISSES_COUNTER + "." + method);
+      flight.computation.whenComplete((ignoredResult, ignoredError) -> inFlight.remove(key, flight));
+      // started outside the map operation, since preparing a request may take a read action
+      start(flight, computation);
+    }
+
+    final var result = new CompletableFuture<T>();
+    flight.computation.whenComplete((value, error) -> {
+      if (error != null) {
+        result.completeExceptionally(error);
+      } else {
+        result.complete(value);
+      }
+    });
+    result.whenComplete((ignoredResult, ignoredError) -> {
+      if (result.isCancelled()) {
+        unsubscribe(key, flight);
+      }
+    });
+    return result;
+  }
+
+  private static <T> void start(@NotNull Flight<T> flight, @NotNull Supplier<@NotNull CompletableFuture<T>> computation) {
+    final CompletableFuture<T> started;
+    try {
+      started = computation.get();
+    } catch (RuntimeException e) {
+      flight.computation.completeExceptionally(e);
+      return;
+    }
+    started.whenComplete((value, error) -> {
+      if (error != null) {
+        flight.computation.completeExceptionally(error);
+      } else {
+        flight.computation.complete(value);
+      }
+    });
+    flight.computation.whenComplete((ignoredResult, ignoredError) -> {
+      if (flight.computation.isCancelled()) {
+        started.cancel(true);
+      }
+    });
+  }
+
+  /**
+   * The change sequence number of a managed document, which accounts for the changes not applied yet,
+   * or the modification stamp of the document if it's loaded, or of the file otherwise.
+   * The sequence numbers are negated, so that they never equal a modification stamp.
+   */
+  public static long getDocumentStamp(@NotNull Project project, @NotNull LspPath path) {
+    final var changeSequence = project.getService(ManagedDocuments.class).getChangeSequence(path);
+    if (changeSequence >= 0) {
+      return -changeSequence - 1;
+    }
+    final var file = path.findVirtualFile();
+    if (file == null) {
+      return -1;
+    }
+    final var document = FileDocumentManager.getInstance().getCachedDocument(file);
+    return document != null ? document.getModificationStamp() : file.getModificationStamp();
+  }
+
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  private void unsubscribe(@NotNull RequestKey key, @NotNull Flight<?> flight) {
+    final var abandoned = new boolean[1];
+    inFlight.computeIfPresent(key, (k, existing) -> {
+      if (existing != flight || --existing.subscribers > 0) {
+        return existing;
+      }
+      abandoned[0] = true;
+      return null;
+    });
+    // cancelled outside the map operation, since the completion handlers update the map
+    if (abandoned[0]) {
+      LOG.debug("Cancelled request abandoned by all callers: " + key.method() + " " + key.path());
+      flight.computation.cancel(true);
+    }
+  }
+
+  private record RequestKey(@NotNull String method, @NotNull LspPath path, long documentStamp, @Nullable Object params) {
+  }
+
+  // the subscribers are only counted inside the map operations, which are atomic for a key
+  private static class Flight<T> {
+    @NotNull
+    final CompletableFuture<T> computation = new CompletableFuture<>();
+    int subscribers = 1;
+  }
+}
@@ -0,0 +1,87 @@
+package org.rri.ideals.server;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of in-flight requests bound to a document, so that stale ones can be cancelled.
+ * <p>
+ * A request is identified by its LSP method and the document URI. When a newer request of the same kind
+ * arrives for the same document, or the document gets changed, the older request is superseded:
+ * the client won't use its result anyway, so it's cancelled to free the resources.
+ * Requests which are only {@link #bindToDocument bound to a document} are cancelled on its change only.
+ */
+@Service(Service.Level.PROJECT)
+final public class RequestScheduler {
+  private static final Logger LOG = Logger.getInstance(RequestScheduler.class);
+
+  public static final String SUPERSEDED_COUNTER = "requests.superseded";
+
+  private final ConcurrentHashMap<RequestKey, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+  private final Set<BoundRequest> bound = ConcurrentHashMap.newKeySet();
+
+  @NotNull
+  public <T> CompletableFuture<T> schedule(@NotNull String method,
+                                           @NotNull LspPath path,
+                                           @NotNull CompletableFuture<T> request) {
+    final var key = new RequestKey(method, path);
+    final var previous = inFlight.put(key, request);
+    if (previous != null && previous != request) {
+      supersede(key, previous);
+    }
+
+    request.whenComplete((ignoredResult, ignoredError) -> inFlight.remove(key, request));
+    return request;
+  }
+
+  @NotNull
+  public <T> CompletableFuture<T> bindToDocument(@NotNull LspPath path, @NotNull CompletableFuture<T> request) {
+    final var entry = new BoundRequest(path, request);
+    bound.add(entry);
+    request.whenComplete((ignoredResult, ignoredError) -> bound.remove(entry));
+    return request;
+  }
+
+  public void documentChanged(@NotNull LspPath path) {
+    inFlight.forEach((key, request) -> {
+      if (key.path().equals(path) && inFlight.remove(key, request)) {
+        supersede(key, request);
+      }
+    });
+    bound.removeIf(entry -> {
+      if (!entry.path().equals(path)) {
+        return false;
+      }
+      if (entry.request().cancel(true)) {
+        LOG.debug("Cancelled request bound to changed document: " + path);
+        Metrics.increment(SUPERSEDED_COUNTER);
+      }
+      return true;
+    });
+  }
+
+  public int getInFlightCount() {
+    return inFlight.size() + bound.size();
+  }
+
+  private static void supersede(@NotNull RequestKey key, @NotNull CompletableFuture<?> request) {
+    if (request.cancel(true)) {
+      LOG.debug("Superseded stale request: " + key.method() + " " + key.path());
+      Metrics.increment(SUPERSEDED_COUNTER);
+      Metrics.increment(SUPERSEDED_COUNTER + "." + key.method());
+    }
+  }
+
+  private record RequestKey(@NotNull String method, @NotNull LspPath path) {
+  }
+
+  // identity of the request future is what matters, records compare it with equals() which isn't overridden
+  private record BoundRequest(@NotNull LspPath path, @NotNull CompletableFuture<?> request) {
+  }
+}
@@ -0,0 +1,185 @@
+package org.rri.ideals.server;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileDocumentManagerListener;
+import com.intellij.openapi.fileEditor.impl.FileDocumentManagerImpl;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
+import org.jetbrains.annotations.NotNull;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the documents of the files not open in the client (closed ones, or ones loaded to convert locations)
+ * within the memory budget set by the {@code ideals.documents.retainedMb} registry key.
+ * <p>
+ * Such documents may be strongly reachable: {@link org.rri.ideals.server.util.MiscUtil#getDocument} registers
+ * a hard reference to the documents it creates. The documents are tracked when they are loaded or closed
+ * in the client, rather than on every access, so that getting a document stays cheap.
+ * When the budget is exceeded, the least recently tracked documents lose those references, so that they
+ * and their PSI can be collected.
+ * <p>
+ * Unsaved documents are held by the platform until they are saved, and their changes (e.g. made by a rename
+ * in a file not open in the client) must not be lost, so they are pinned: they don't count against the budget
+ * and are tracked again once they are saved or reloaded. A document whose PSI isn't committed yet is released
+ * after the commit. Only the sizes of the documents are tracked here, not the documents themselves,
+ * so the {@value #TRACKED_FILES_GAUGE} gauge counts the tracked files: a document which is tracked may have been
+ * collected already, and an evicted one may still be alive while something else refers to it.
+ */
+@Service(Service.Level.PROJECT)
+final public class UnmanagedDocuments implements Disposable {
+  private static final Logger LOG = Logger.getInstance(UnmanagedDocuments.class);
+  public static final String TRACKED_FILES_GAUGE = "documents.unmanaged.trackedFiles";
+  public static final String PINNED_FILES_GAUGE = "documents.unmanaged.pinnedFiles";
+  public static final String BYTES_GAUGE = "documents.unmanaged.bytes";
+  public static final String EVICTED_COUNTER = "documents.unmanaged.evicted";
+
+  @NotNull
+  private final Project project;
+
+  // in access order, so the first one is the least recently used; guarded by this
+  private final LinkedHashMap<VirtualFile, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+  // unsaved, so kept out of the budget until saved; guarded by this
+  private final Set<VirtualFile> pinned = new HashSet<>();
+  private long totalBytes;
+
+  public UnmanagedDocuments(@NotNull Project project) {
+    this.project = project;
+    ApplicationManager.getApplication().getMessageBus().connect(this)
+        .subscribe(FileDocumentManagerListener.TOPIC, new FileDocumentManagerListener() {
+          @Override
+          public void beforeDocumentSaving(@NotNull Document document) {
+            unpin(document);
+          }
+
+          @Override
+          public void fileContentReloaded(@NotNull VirtualFile file, @NotNull Document document) {
+            unpin(document);
+          }
+        });
+  }
+
+  /**
+   * Marks the document of the file as used now, evicting the least recently tracked ones if the budget is exceeded.
+   */
+  public void touch(@NotNull VirtualFile file, @NotNull Document document) {
+    final long bytes = (long) Character.BYTES * document.getTextLength();
+    final List<VirtualFile> evicted;
+    synchronized (this) {
+      final var previous = sizes.get(file);
+      if (previous == null && project.getService(ManagedDocuments.class).isManaged(LspPath.fromVirtualFile(file))) {
+        return;
+      }
+      if (pinned.remove(file)) {
+        Metrics.add(PINNED_FILES_GAUGE, -1);
+      }
+      sizes.put(file, bytes);
+      update(previous == null ? 1 : 0, bytes - (previous == null ? 0 : previous));
+      evicted = collectOverflow(file);
+    }
+    if (!evicted.isEmpty()) {
+      ApplicationManager.getApplication().invokeLater(() -> evicted.forEach(this::release), project.getDisposed());
+    }
+  }
+
+  /**
+   * Stops tracking the document of the file, e.g. when it's opened in the client.
+   */
+  public synchronized void forget(@NotNull VirtualFile file) {
+    final var bytes = sizes.remove(file);
+    if (bytes != null) {
+      update(-1, -bytes);
+    }
+    if (pinned.remove(file)) {
+      Metrics.add(PINNED_FILES_GAUGE, -1);
+    }
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    update(-sizes.size(), -totalBytes);
+    Metrics.add(PINNED_FILES_GAUGE, -pinned.size());
+    sizes.clear();
+    pinned.clear();
+  }
+
+  private @NotNull List<VirtualFile> collectOverflow(@NotNull VirtualFile justUsed) {
+    final var budget = Registry.intValue("ideals.documents.retainedMb", 64) * 1024L * 1024L;
+    final var evicted = new ArrayList<VirtualFile>();
+    final var iterator = sizes.entrySet().iterator();
+    while (totalBytes > budget && iterator.hasNext()) {
+      final var eldest = iterator.next();
+      if (eldest.getKey().equals(justUsed)) {
+        break;
+      }
+      iterator.remove();
+      update(-1, -eldest.getValue());
+      evicted.add(eldest.getKey());
+    }
+    return evicted;
+  }
+
+  private void update(long trackedDelta, long bytesDelta) {
+    totalBytes += bytesDelta;
+    Metrics.add(TRACKED_FILES_GAUGE, trackedDelta);
+    Metrics.add(BYTES_GAUGE, bytesDelta);
+  }
+
+  private void release(@NotNull VirtualFile file) {
+    if (!file.isValid() || project.getService(ManagedDocuments.class).isManaged(LspPath.fromVirtualFile(file))) {
+      return;
+    }
+    final var fileDocumentManager = FileDocumentManager.getInstance();
+    final var document = fileDocumentManager.getCachedDocument(file);
+    if (document == null) {
+      return;
+    }
+    if (fileDocumentManager.isDocumentUnsaved(document)) {
+      synchronized (this) {
+        if (!sizes.containsKey(file) && pinned.add(file)) {
+          LOG.debug("Pinning unsaved document: " + file);
+          Metrics.add(PINNED_FILES_GAUGE, 1);
+        }
+      }
+      return;
+    }
+    final var psiDocumentManager = PsiDocumentManager.getInstance(project);
+    if (!psiDocumentManager.isCommitted(document)) {
+      // still in use
+      psiDocumentManager.performForCommittedDocument(document, () -> release(file));
+      return;
+    }
+
+    LOG.debug("Releasing document: " + file);
+    file.putUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY, null);
+    Metrics.increment(EVICTED_COUNTER);
+  }
+
+  private void unpin(@NotNull Document document) {
+    final var file = FileDocumentManager.getInstance().getFile(document);
+    final boolean wasPinned;
+    synchronized (this) {
+      wasPinned = file != null && pinned.contains(file);
+    }
+    if (wasPinned) {
+      // it's tracked again (and released if it doesn't fit) once saved or reloaded
+      touch(file, document);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.rri.ideals.server.bootstrap;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.concurrency.AppExecutorUtil;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
@@ -8,6 +9,7 @@ import org.jetbrains.annotations.NotNull;
 import org.rri.ideals.server.LspServer;
 import org.rri.ideals.server.MyLanguageClient;
 import org.rri.ideals.server.util.MiscUtil;
+import org.rri.ideals.server.util.VirtualThreads;
 
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,6 +21,9 @@ import java.util.function.Function;
 public abstract class LspServerRunnerBase {
   private final static Logger LOG = Logger.getInstance(LspServerRunnerBase.class);
 
+  // lsp4j only needs a thread for reading the incoming messages: the requests are handled in the lanes
+  private static final int CONNECTION_THREADS = 2;
+
   private final boolean isMultiConnection;
 
   protected LspServerRunnerBase(boolean isMultiConnection) {
@@ -33,7 +38,10 @@ public abstract class LspServerRunnerBase {
   protected record Connection(@NotNull InputStream input, @NotNull OutputStream output) {}
 
   private ExecutorService createServerThreads() {
-    return Executors.newCachedThreadPool();
+    if (VirtualThreads.isEnabled()) {
+      return VirtualThreads.newExecutor("IdeaLS connection");
+    }
+    return Executors.newFixedThreadPool(CONNECTION_THREADS, ConcurrencyUtil.newNamedThreadFactory("IdeaLS connection"));
   }
 
   public CompletableFuture<Void> launch() {
@@ -54,15 +62,20 @@ public abstract class LspServerRunnerBase {
     Function<MessageConsumer, MessageConsumer> wrapper = consumer -> consumer;
 
     var languageServer = new LspServer();
+    // the threads belong to the connection, so they are stopped along with it
+    var serverThreads = createServerThreads();
     var launcher = Launcher.createIoLauncher(
         languageServer, MyLanguageClient.class,
-        connection.input, connection.output, createServerThreads(), wrapper
+        connection.input, connection.output, serverThreads, wrapper
     );
     var client = launcher.getRemoteProxy();
     languageServer.connect(client);
     LOG.info("Listening for commands.");
     return CompletableFuture
         .runAsync(MiscUtil.asRunnable(() -> launcher.startListening().get()), AppExecutorUtil.getAppExecutorService())
-        .whenComplete((ignored1, ignored2) -> languageServer.stop());
+        .whenComplete((ignored1, ignored2) -> {
+          languageServer.stop();
+          serverThreads.shutdown();
+        });
   }
 }
@@ -6,18 +6,34 @@ import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Everything a request handler needs: the target PSI file, the offset of the request position in it,
+ * and the cancellation token.
+ * <p>
+ * An editor is only present when the handler asked for it (see {@link LspCommand#isEditorRequired()}),
+ * since opening it and moving the caret has to be done on the EDT.
+ */
 final public class ExecutorContext {
 
   @NotNull
   private final PsiFile file;
   @Nullable
   private final CancelChecker cancelToken;
-  @NotNull
+  @Nullable
   private final Editor editor;
+  private final int offset;
 
   public ExecutorContext(@NotNull PsiFile file, @NotNull Editor editor, @Nullable CancelChecker cancelToken) {
     this.file = file;
     this.editor = editor;
+    this.offset = -1;
+    this.cancelToken = cancelToken;
+  }
+
+  public ExecutorContext(@NotNull PsiFile file, int offset, @Nullable CancelChecker cancelToken) {
+    this.file = file;
+    this.editor = null;
+    this.offset = offset;
     this.cancelToken = cancelToken;
   }
 
@@ -29,7 +45,21 @@ final public class ExecutorContext {
     return cancelToken;
   }
 
+  /**
+   * @return the offset of the request position, or -1 if the request isn't bound to a position
+   */
+  public int getOffset() {
+    return editor != null ? editor.getCaretModel().getOffset() : offset;
+  }
+
+  public @Nullable Editor findEditor() {
+    return editor;
+  }
+
   public @NotNull Editor getEditor() {
+    if (editor == null) {
+      throw new IllegalStateException("Editor isn't available in this context; the command has to require it");
+    }
     return editor;
   }
 }
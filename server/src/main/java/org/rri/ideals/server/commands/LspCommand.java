@@ -6,7 +6,10 @@ import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.LspPath;
+import org.rri.ideals.server.RequestScheduler;
 import org.rri.ideals.server.util.AsyncExecutor;
+import org.rri.ideals.server.util.RequestLane;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
@@ -17,12 +20,57 @@ public abstract class LspCommand<R> {
   @NotNull
   protected abstract Supplier<@NotNull String> getMessageSupplier();
 
-  protected abstract boolean isCancellable();
+  /**
+   * The LSP method the command serves, used as the name of its latency metrics.
+   */
+  @NotNull
+  protected abstract String getMethod();
 
   protected abstract R execute(@NotNull ExecutorContext ctx);
 
+  /**
+   * Commands run in a background thread by default; only those touching the editor or
+   * performing write actions need to pay for the EDT.
+   */
   protected boolean isRunInEdt() {
-    return true;
+    return false;
+  }
+
+  /**
+   * Background commands are run in a non-blocking read action, so that they don't delay document updates:
+   * the command is cancelled when a write action is pending and restarted after it.
+   * Commands waiting for the EDT in the middle of the work have to manage read actions on their own.
+   */
+  protected boolean isRunInReadAction() {
+    return !isRunInEdt();
+  }
+
+  @NotNull
+  protected RequestLane getLane() {
+    return RequestLane.INTERACTIVE;
+  }
+
+  /**
+   * Whether the command needs an editor with the caret at the request position.
+   * Otherwise {@link ExecutorContext#getOffset()} is the only way to get the position.
+   */
+  protected boolean isEditorRequired() {
+    return false;
+  }
+
+  /**
+   * Whether the command is skipped for the documents in large file mode, since its time grows with the file size.
+   */
+  protected boolean isSkippedForLargeFiles() {
+    return false;
+  }
+
+  /**
+   * Whether the computation is cancelled when the document is changed. Only interactive requests are bound to
+   * the document: their results are useless after a change, since the client sends them anew.
+   */
+  protected boolean isBoundToDocument() {
+    return false;
   }
 
   public @NotNull CompletableFuture<@Nullable R> runAsync(@NotNull Project project, @NotNull TextDocumentIdentifier textDocumentIdentifier) {
@@ -37,10 +85,17 @@ public abstract class LspCommand<R> {
     LOG.info(getMessageSupplier().get());
     var client = AsyncExecutor.<R>builder()
             .executorContext(project, uri, position)
-            .cancellable(isCancellable())
             .runInEDT(isRunInEdt())
+            .editorRequired(isEditorRequired())
+            .nonBlockingReadAction(isRunInReadAction())
+            .skipForLargeFiles(isSkippedForLargeFiles())
+            .lane(getLane())
+            .method(getMethod())
             .build();
 
-    return client.compute(this::execute);
+    final var result = client.compute(this::execute);
+    return isBoundToDocument()
+        ? project.getService(RequestScheduler.class).bindToDocument(LspPath.fromLspUri(uri), result)
+        : result;
   }
 }
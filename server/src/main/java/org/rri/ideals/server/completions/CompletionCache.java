@@ -0,0 +1,131 @@
+package org.rri.ideals.server.completions;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * The recent completions of each document, kept so that their items can be resolved and re-filtered.
+ * <p>
+ * A few completions of a document are kept besides the latest one: a re-filtered list replaces the previous one
+ * as the latest, but the client may still resolve the items of the previous list.
+ * The entries are bounded by the memory budget set by the {@code ideals.completion.cacheMb} registry key:
+ * when it's exceeded, the least recently used completions are evicted, except the latest one of the document just
+ * completed. The entries re-filtered from one another share their lookup elements, so the estimate is conservative.
+ * All the methods are safe to call from any thread.
+ */
+final class CompletionCache {
+  public static final String BYTES_GAUGE = "completion.cache.bytes";
+  public static final String EVICTED_COUNTER = "completion.cache.evicted";
+  public static final String MISSES_COUNTER = "completion.cache.misses";
+  private static final int VERSIONS_PER_DOCUMENT = 4;
+
+  // in access order, so the first one is the least recently used; guarded by this
+  private final LinkedHashMap<Entry, CompletionService.CompletionData> entries = new LinkedHashMap<>(16, 0.75f, true);
+  // the versions cached for each document URI, the latest one goes last; guarded by this
+  private final HashMap<String, ArrayDeque<Integer>> versions = new HashMap<>();
+  private long totalBytes;
+
+  /**
+   * @return the latest completion of the document, or null if there is none
+   */
+  synchronized @Nullable CompletionService.CompletionData get(@NotNull String uri) {
+    final var documentVersions = versions.get(uri);
+    return documentVersions != null ? entries.get(new Entry(uri, documentVersions.getLast())) : null;
+  }
+
+  /**
+   * @return the completion of the document with the given version, or null if it's been evicted
+   */
+  synchronized @Nullable CompletionService.CompletionData get(@NotNull String uri, int version) {
+    return entries.get(new Entry(uri, version));
+  }
+
+  /**
+   * Makes the completion the latest one of the document, keeping a few previous ones.
+   */
+  synchronized void put(@NotNull String uri, @NotNull CompletionService.CompletionData data) {
+    final var entry = new Entry(uri, data.version());
+    final var previous = entries.put(entry, data);
+    update(data.estimateBytes() - (previous == null ? 0 : previous.estimateBytes()));
+
+    final var documentVersions = versions.computeIfAbsent(uri, key -> new ArrayDeque<>());
+    documentVersions.remove(data.version());
+    documentVersions.addLast(data.version());
+    while (documentVersions.size() > VERSIONS_PER_DOCUMENT) {
+      remove(new Entry(uri, documentVersions.removeFirst()));
+    }
+    evictOverflow(entry);
+  }
+
+  /**
+   * Puts the completion only if the latest one of the document is still the expected one,
+   * which stays cached as a previous one.
+   *
+   * @return false if another completion has been put or the expected one has been evicted meanwhile
+   */
+  synchronized boolean replace(@NotNull String uri,
+                               @NotNull CompletionService.CompletionData expected,
+                               @NotNull CompletionService.CompletionData data) {
+    if (get(uri) != expected) {
+      return false;
+    }
+    put(uri, data);
+    return true;
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    versions.clear();
+    update(-totalBytes);
+  }
+
+  synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  private void evictOverflow(@NotNull Entry justUsed) {
+    final var budget = Registry.intValue("ideals.completion.cacheMb", 32) * 1024L * 1024L;
+    final var iterator = entries.entrySet().iterator();
+    while (totalBytes > budget && iterator.hasNext()) {
+      final var eldest = iterator.next();
+      if (eldest.getKey().equals(justUsed)) {
+        continue;
+      }
+      iterator.remove();
+      forgetVersion(eldest.getKey());
+      update(-eldest.getValue().estimateBytes());
+      Metrics.increment(EVICTED_COUNTER);
+    }
+  }
+
+  private void remove(@NotNull Entry entry) {
+    final var data = entries.remove(entry);
+    if (data != null) {
+      update(-data.estimateBytes());
+    }
+  }
+
+  private void forgetVersion(@NotNull Entry entry) {
+    final var documentVersions = versions.get(entry.uri());
+    if (documentVersions != null) {
+      documentVersions.remove(entry.version());
+      if (documentVersions.isEmpty()) {
+        versions.remove(entry.uri());
+      }
+    }
+  }
+
+  private void update(long bytesDelta) {
+    totalBytes += bytesDelta;
+    Metrics.add(BYTES_GAUGE, bytesDelta);
+  }
+
+  private record Entry(@NotNull String uri, int version) {
+  }
+}
@@ -4,14 +4,20 @@ import java.util.Objects;
 
 @SuppressWarnings("FieldMayBeFinal")  // fields are set via reflection
 final class CompletionItemData {
+  private String uri;
   private int completionDataVersion;
   private int lookupElementIndex;
 
-  CompletionItemData(int completionDataVersion, int lookupElementIndex) {
+  CompletionItemData(String uri, int completionDataVersion, int lookupElementIndex) {
+    this.uri = uri;
     this.completionDataVersion = completionDataVersion;
     this.lookupElementIndex = lookupElementIndex;
   }
 
+  public String getUri() {
+    return uri;
+  }
+
   public int getCompletionDataVersion() {
     return completionDataVersion;
   }
@@ -25,18 +31,20 @@ final class CompletionItemData {
     if (obj == this) return true;
     if (obj == null || obj.getClass() != this.getClass()) return false;
     var that = (CompletionItemData) obj;
-    return this.completionDataVersion == that.completionDataVersion &&
+    return Objects.equals(this.uri, that.uri) &&
+        this.completionDataVersion == that.completionDataVersion &&
         this.lookupElementIndex == that.lookupElementIndex;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(completionDataVersion, lookupElementIndex);
+    return Objects.hash(uri, completionDataVersion, lookupElementIndex);
   }
 
   @Override
   public String toString() {
     return "CompletionResolveData[" +
+        "uri=" + uri + ", " +
         "completionDataVersion=" + completionDataVersion + ", " +
         "lookupElementIndex=" + lookupElementIndex + ']';
   }
@@ -0,0 +1,58 @@
+package org.rri.ideals.server.completions;
+
+import com.intellij.codeInsight.lookup.LookupElement;
+import com.intellij.codeInsight.template.impl.LiveTemplateLookupElement;
+import com.intellij.codeInsight.template.postfix.completion.PostfixTemplateLookupElement;
+import com.intellij.lang.LanguageExtension;
+import com.intellij.psi.PsiDirectory;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import org.eclipse.lsp4j.CompletionItemKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Picks the LSP kind of lookup elements by their PSI elements or objects, registered per language of the PSI element
+ * as {@code org.rri.ideals.completionKindClassifier}.
+ * <p>
+ * Unlike comparing the icons of the elements, it doesn't need the icons to be loaded.
+ */
+public interface CompletionKindClassifier {
+  LanguageExtension<CompletionKindClassifier> EP = new LanguageExtension<>("org.rri.ideals.completionKindClassifier");
+
+  /**
+   * @return the kind, or null if the element isn't known to the classifier
+   */
+  @Nullable
+  CompletionItemKind classify(@NotNull LookupElement element, @NotNull PsiElement psiElement);
+
+  /**
+   * Tries the classifiers of the language of the element's PSI element, then the ones common for all languages.
+   *
+   * @return the kind, or null if the icon of the element is the only way left to find it
+   */
+  @Nullable
+  static CompletionItemKind classifyElement(@NotNull LookupElement element) {
+    if (element.as(LiveTemplateLookupElement.class) != null || element.as(PostfixTemplateLookupElement.class) != null) {
+      return CompletionItemKind.Snippet;
+    }
+
+    final var psiElement = element.getPsiElement();
+    if (psiElement == null || !psiElement.isValid()) {
+      return null;
+    }
+    for (var classifier : EP.allForLanguageOrAny(psiElement.getLanguage())) {
+      final var kind = classifier.classify(element, psiElement);
+      if (kind != null) {
+        return kind;
+      }
+    }
+
+    if (psiElement instanceof PsiDirectory) {
+      return CompletionItemKind.Folder;
+    } else if (psiElement instanceof PsiFile) {
+      return CompletionItemKind.File;
+    }
+    return null;
+  }
+}
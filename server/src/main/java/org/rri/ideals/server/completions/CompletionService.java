@@ -10,26 +10,25 @@ import com.intellij.codeInsight.template.impl.TemplateManagerImpl;
 import com.intellij.codeInsight.template.impl.TemplateState;
 import com.intellij.codeInsight.template.impl.Variable;
 import com.intellij.icons.AllIcons;
-import com.intellij.lang.Language;
 import com.intellij.lang.documentation.ide.IdeDocumentationTargetProvider;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.impl.DocumentImpl;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.platform.backend.documentation.DocumentationTarget;
 import com.intellij.platform.backend.documentation.impl.ImplKt;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiFileFactory;
 import com.intellij.ui.DeferredIcon;
 import com.intellij.ui.IconManager;
 import com.intellij.ui.PlatformIcons;
@@ -39,29 +38,39 @@ import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.LspPath;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.completions.util.IconUtil;
 import org.rri.ideals.server.completions.util.TextEditRearranger;
 import org.rri.ideals.server.completions.util.TextEditWithOffsets;
 import org.rri.ideals.server.util.EditorUtil;
 import org.rri.ideals.server.util.LspProgressIndicator;
+import org.rri.ideals.server.util.Metrics;
 import org.rri.ideals.server.util.MiscUtil;
 import org.rri.ideals.server.util.TextUtil;
 
+import javax.swing.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 @Service(Service.Level.PROJECT)
 final public class CompletionService implements Disposable {
   private static final Logger LOG = Logger.getInstance(CompletionService.class);
+
+  public static final String FULL_COMPLETIONS_COUNTER = "completion.full";
+  public static final String REFILTERED_COMPLETIONS_COUNTER = "completion.refiltered";
+  public static final String TRUNCATED_COMPLETIONS_COUNTER = "completion.truncated";
+  public static final String KINDS_BY_ICON_COUNTER = "completion.kinds.byIcon";
   @NotNull
   private final Project project;
 
-  private final AtomicReference<CompletionData> cachedDataRef = new AtomicReference<>(CompletionData.EMPTY_DATA);
+  private final CompletionCache cache = new CompletionCache();
+  private final AtomicInteger versions = new AtomicInteger();
 
   public CompletionService(@NotNull Project project) {
     this.project = project;
@@ -69,15 +78,25 @@ final public class CompletionService implements Disposable {
 
   @Override
   public void dispose() {
+    cache.clear();
   }
 
+  /**
+   * When the request extends the prefix of the previous one at the same place, the previous results are re-filtered
+   * instead of running the completion again.
+   */
   @NotNull
-  public List<CompletionItem> computeCompletions(@NotNull ExecutorContext executorContext) {
+  public CompletionList computeCompletions(@NotNull ExecutorContext executorContext) {
     LOG.info("start completion");
     final var cancelChecker = executorContext.getCancelToken();
     assert cancelChecker != null;
     try {
-      return doComputeCompletions(executorContext.getPsiFile(), executorContext.getEditor(), cancelChecker);
+      final var uri = LspPath.fromVirtualFile(executorContext.getPsiFile().getVirtualFile()).toLspUri();
+      final var refiltered = refilterCachedCompletions(uri, executorContext.getEditor(), cancelChecker);
+      if (refiltered != null) {
+        return refiltered;
+      }
+      return doComputeCompletions(uri, executorContext.getPsiFile(), executorContext.getEditor(), cancelChecker);
     } finally {
       cancelChecker.checkCanceled();
     }
@@ -89,7 +108,7 @@ final public class CompletionService implements Disposable {
     final var completionResolveData =
         new Gson().fromJson(unresolved.getData().toString(), CompletionItemData.class);
     try {
-      return doResolve(completionResolveData.getCompletionDataVersion(),
+      return doResolve(completionResolveData.getUri(), completionResolveData.getCompletionDataVersion(),
           completionResolveData.getLookupElementIndex(), unresolved, cancelChecker);
     } finally {
       cancelChecker.checkCanceled();
@@ -105,7 +124,7 @@ final public class CompletionService implements Disposable {
   }
 
   @NotNull
-  private CompletionItem doResolve(int completionDataVersion, int lookupElementIndex,
+  private CompletionItem doResolve(@Nullable String uri, int completionDataVersion, int lookupElementIndex,
                                    @NotNull CompletionItem unresolved, @NotNull CancelChecker cancelChecker) {
 
     Ref<Document> copyThatCalledCompletionDocRef = new Ref<>();
@@ -116,13 +135,13 @@ final public class CompletionService implements Disposable {
     TextRange snippetBounds;
     Document copyToInsertDoc;
     Document copyThatCalledCompletionDoc;
+    var cachedData = uri != null ? cache.get(uri, completionDataVersion) : null;
+    if (cachedData == null) {
+      Metrics.increment(CompletionCache.MISSES_COUNTER);
+      return unresolved;
+    }
     var disposable = Disposer.newDisposable();
-    var cachedData = cachedDataRef.get();
     try {
-      if (completionDataVersion != cachedData.version) {
-        return unresolved;
-      }
-
       prepareCompletionAndHandleInsert(
           cachedData,
           lookupElementIndex,
@@ -211,61 +230,10 @@ final public class CompletionService implements Disposable {
       resItem.setDetail(presentation.getTypeText());
       resItem.setTags(tagList);
 
-      var icon = presentation.getIcon();
-      if (icon instanceof DeferredIcon deferredIcon) {
-        icon = deferredIcon.getBaseIcon();
-      }
-      if (icon == null) {
-        resItem.setKind(CompletionItemKind.Keyword);
-        return resItem;
-      }
-      CompletionItemKind kind = null;
-      var iconManager = IconManager.getInstance();
-      if (IconUtil.compareIcons(icon, AllIcons.Nodes.Method, PlatformIcons.Method) ||
-          IconUtil.compareIcons(icon, AllIcons.Nodes.AbstractMethod, PlatformIcons.AbstractMethod)) {
-        kind = CompletionItemKind.Method;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Module, "nodes/Module.svg")
-          || IconUtil.compareIcons(icon, AllIcons.Nodes.IdeaModule, PlatformIcons.IdeaModule)
-          || IconUtil.compareIcons(icon, AllIcons.Nodes.JavaModule, PlatformIcons.JavaModule)
-          || IconUtil.compareIcons(icon, AllIcons.Nodes.ModuleGroup, "nodes/moduleGroup.svg")) {
-        kind = CompletionItemKind.Module;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Function, PlatformIcons.Function)) {
-        kind = CompletionItemKind.Function;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Interface, PlatformIcons.Interface) ||
-          IconUtil.compareIcons(icon,
-              iconManager.tooltipOnlyIfComposite(AllIcons.Nodes.Interface), PlatformIcons.Interface)) {
-        kind = CompletionItemKind.Interface;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Folder, PlatformIcons.Folder)) {
-        kind = CompletionItemKind.Folder;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.MethodReference, PlatformIcons.MethodReference)) {
-        kind = CompletionItemKind.Reference;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.TextArea, "nodes/textArea.svg")) {
-        kind = CompletionItemKind.Text;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Type, "nodes/type.svg")) {
-        kind = CompletionItemKind.TypeParameter;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Property, PlatformIcons.Property)) {
-        kind = CompletionItemKind.Property;
-      } else if (IconUtil.compareIcons(icon, AllIcons.FileTypes.Any_type, "fileTypes/anyType.svg") /* todo can we find that?*/) {
-        kind = CompletionItemKind.File;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Enum, PlatformIcons.Enum)) {
-        kind = CompletionItemKind.Enum;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Variable, PlatformIcons.Variable) ||
-          IconUtil.compareIcons(icon, AllIcons.Nodes.Parameter, PlatformIcons.Parameter) ||
-          IconUtil.compareIcons(icon, AllIcons.Nodes.NewParameter, "nodes/newParameter.svg")) {
-        kind = CompletionItemKind.Variable;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Constant, "nodes/constant.svg")) {
-        kind = CompletionItemKind.Constant;
-      } else if (
-          IconUtil.compareIcons(icon, AllIcons.Nodes.Class, PlatformIcons.Class) ||
-              IconUtil.compareIcons(icon,
-                  iconManager.tooltipOnlyIfComposite(AllIcons.Nodes.Class), PlatformIcons.Class) ||
-              IconUtil.compareIcons(icon, AllIcons.Nodes.Class, PlatformIcons.Class) ||
-              IconUtil.compareIcons(icon, AllIcons.Nodes.AbstractClass, PlatformIcons.AbstractClass)) {
-        kind = CompletionItemKind.Class;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Field, PlatformIcons.Field)) {
-        kind = CompletionItemKind.Field;
-      } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Template, "nodes/template.svg")) {
-        kind = CompletionItemKind.Snippet;
+      var kind = CompletionKindClassifier.classifyElement(lookupElement);
+      if (kind == null) {
+        Metrics.increment(KINDS_BY_ICON_COUNTER);
+        kind = classifyByIcon(presentation.getIcon());
       }
       resItem.setKind(kind);
 
@@ -278,14 +246,151 @@ final public class CompletionService implements Disposable {
   }
 
 
-  private @NotNull List<CompletionItem> doComputeCompletions(@NotNull PsiFile psiFile,
-                                                             @NotNull Editor editor,
-                                                             @NotNull CancelChecker cancelChecker) {
+  /**
+   * The last resort for the elements unknown to {@link CompletionKindClassifier}s: compares the icon of the element
+   * with the icons of the known kinds. Loads the icon if its loading has been deferred.
+   */
+  @Nullable
+  private static CompletionItemKind classifyByIcon(@Nullable Icon icon) {
+    if (icon instanceof DeferredIcon deferredIcon) {
+      icon = deferredIcon.evaluate();
+    }
+    if (icon == null) {
+      return CompletionItemKind.Keyword;
+    }
+    CompletionItemKind kind = null;
+    var iconManager = IconManager.getInstance();
+    if (IconUtil.compareIcons(icon, AllIcons.Nodes.Method, PlatformIcons.Method) ||
+        IconUtil.compareIcons(icon, AllIcons.Nodes.AbstractMethod, PlatformIcons.AbstractMethod)) {
+      kind = CompletionItemKind.Method;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Module, "nodes/Module.svg")
+        || IconUtil.compareIcons(icon, AllIcons.Nodes.IdeaModule, PlatformIcons.IdeaModule)
+        || IconUtil.compareIcons(icon, AllIcons.Nodes.JavaModule, PlatformIcons.JavaModule)
+        || IconUtil.compareIcons(icon, AllIcons.Nodes.ModuleGroup, "nodes/moduleGroup.svg")) {
+      kind = CompletionItemKind.Module;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Function, PlatformIcons.Function)) {
+      kind = CompletionItemKind.Function;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Interface, PlatformIcons.Interface) ||
+        IconUtil.compareIcons(icon,
+            iconManager.tooltipOnlyIfComposite(AllIcons.Nodes.Interface), PlatformIcons.Interface)) {
+      kind = CompletionItemKind.Interface;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Folder, PlatformIcons.Folder)) {
+      kind = CompletionItemKind.Folder;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.MethodReference, PlatformIcons.MethodReference)) {
+      kind = CompletionItemKind.Reference;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.TextArea, "nodes/textArea.svg")) {
+      kind = CompletionItemKind.Text;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Type, "nodes/type.svg")) {
+      kind = CompletionItemKind.TypeParameter;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Property, PlatformIcons.Property)) {
+      kind = CompletionItemKind.Property;
+    } else if (IconUtil.compareIcons(icon, AllIcons.FileTypes.Any_type, "fileTypes/anyType.svg") /* todo can we find that?*/) {
+      kind = CompletionItemKind.File;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Enum, PlatformIcons.Enum)) {
+      kind = CompletionItemKind.Enum;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Variable, PlatformIcons.Variable) ||
+        IconUtil.compareIcons(icon, AllIcons.Nodes.Parameter, PlatformIcons.Parameter) ||
+        IconUtil.compareIcons(icon, AllIcons.Nodes.NewParameter, "nodes/newParameter.svg")) {
+      kind = CompletionItemKind.Variable;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Constant, "nodes/constant.svg")) {
+      kind = CompletionItemKind.Constant;
+    } else if (
+        IconUtil.compareIcons(icon, AllIcons.Nodes.Class, PlatformIcons.Class) ||
+            IconUtil.compareIcons(icon,
+                iconManager.tooltipOnlyIfComposite(AllIcons.Nodes.Class), PlatformIcons.Class) ||
+            IconUtil.compareIcons(icon, AllIcons.Nodes.Class, PlatformIcons.Class) ||
+            IconUtil.compareIcons(icon, AllIcons.Nodes.AbstractClass, PlatformIcons.AbstractClass)) {
+      kind = CompletionItemKind.Class;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Field, PlatformIcons.Field)) {
+      kind = CompletionItemKind.Field;
+    } else if (IconUtil.compareIcons(icon, AllIcons.Nodes.Template, "nodes/template.svg")) {
+      kind = CompletionItemKind.Snippet;
+    }
+    return kind;
+  }
+
+  @Nullable
+  private CompletionList refilterCachedCompletions(@NotNull String uri,
+                                                   @NotNull Editor editor,
+                                                   @NotNull CancelChecker cancelChecker) {
+    if (!Registry.is("ideals.completion.refilter", true)) {
+      return null;
+    }
+    final var cachedData = cache.get(uri);
+    if (cachedData == null) {
+      return null;
+    }
+    return MiscUtil.computeInNonBlockingReadAction(() -> {
+      final var document = editor.getDocument();
+      final var caretOffset = editor.getCaretModel().getOffset();
+      final var typed = cachedData.typedSince(document.getImmutableCharSequence(), caretOffset);
+      if (typed == null) {
+        return null;
+      }
+
+      final var elements = refilter(cachedData.lookupElementsWithMatcher, typed);
+      if (elements == null) {
+        return null;
+      }
+      final var position = MiscUtil.offsetToPosition(document, caretOffset);
+      final var snapshot = typed.isEmpty()
+          ? cachedData.snapshot
+          : new CompletionSnapshot(document.getImmutableCharSequence(), cachedData.snapshot.getLanguage());
+      final var newData = new CompletionData(elements, versions.incrementAndGet(), position, snapshot, caretOffset);
+      final var result = toCompletionList(elements, true, document, position, uri, newData.version);
+
+      // a full completion has been done meanwhile
+      if (!cache.replace(uri, cachedData, newData)) {
+        return null;
+      }
+      Metrics.increment(REFILTERED_COMPLETIONS_COUNTER);
+      return result;
+    }, cancelChecker);
+  }
+
+  /**
+   * Matches the elements against their prefixes extended with the typed text. The start matches go first,
+   * otherwise the order of the arranger is kept.
+   *
+   * @return null if some of the matching elements have been invalidated by reparse, so the results must be computed anew
+   */
+  @Nullable
+  private static List<LookupElementWithMatcher> refilter(@NotNull List<LookupElementWithMatcher> elements,
+                                                         @NotNull String typed) {
+    final var startMatches = new ArrayList<LookupElementWithMatcher>();
+    final var otherMatches = new ArrayList<LookupElementWithMatcher>();
+    for (var element : elements) {
+      final var matcher = element.prefixMatcher().cloneWithPrefix(element.prefixMatcher().getPrefix() + typed);
+      final var lookupElement = element.lookupElement();
+      if (!matcher.prefixMatches(lookupElement)) {
+        continue;
+      }
+      if (!lookupElement.isValid()) {
+        return null;
+      }
+      (matcher.isStartMatch(lookupElement) ? startMatches : otherMatches)
+          .add(new LookupElementWithMatcher(lookupElement, matcher));
+    }
+    startMatches.addAll(otherMatches);
+    return startMatches;
+  }
+
+  /**
+   * The contributors may skip some variants while the prefix is empty (e.g. Java classes),
+   * so such results can't be narrowed down by the client or re-filtered when the prefix grows.
+   */
+  private static boolean isRefinable(@NotNull List<LookupElementWithMatcher> elements) {
+    return !elements.isEmpty() && elements.stream().noneMatch(element -> element.prefixMatcher().getPrefix().isEmpty());
+  }
+
+  private @NotNull CompletionList doComputeCompletions(@NotNull String uri,
+                                                       @NotNull PsiFile psiFile,
+                                                       @NotNull Editor editor,
+                                                       @NotNull CancelChecker cancelChecker) {
+    Metrics.increment(FULL_COMPLETIONS_COUNTER);
     VoidCompletionProcess process = new VoidCompletionProcess();
-    Ref<List<CompletionItem>> resultRef = new Ref<>();
+    Ref<CompletionList> resultRef = new Ref<>();
     try {
-      // need for icon load
-      Registry.get("psi.deferIconLoading").setValue(false, process);
       var lookupElementsWithMatcherRef = new Ref<List<LookupElementWithMatcher>>();
       var completionDataVersionRef = new Ref<Integer>();
       // invokeAndWait is necessary for editor creation and completion call
@@ -304,44 +409,84 @@ final public class CompletionService implements Disposable {
                 var elementsWithMatcher = compInfo.getArranger().getElementsWithMatcher();
                 lookupElementsWithMatcherRef.set(elementsWithMatcher);
 
-                // version and data manipulations here are thread safe because they are done inside invokeAndWait
-                int newVersion = 1 + cachedDataRef.get().version;
+                int newVersion = versions.incrementAndGet();
                 completionDataVersionRef.set(newVersion);
 
-                cachedDataRef.set(
+                cache.put(uri,
                     new CompletionData(
                         elementsWithMatcher,
                         newVersion,
                         MiscUtil.offsetToPosition(editor.getDocument(), editor.getCaretModel().getOffset()),
-                        editor.getDocument().getText(),
-                        psiFile.getLanguage()
+                        new CompletionSnapshot(editor.getDocument().getImmutableCharSequence(), psiFile.getLanguage()),
+                        editor.getCaretModel().getOffset()
                     ));
               }
           ), new LspProgressIndicator(cancelChecker));
-      ReadAction.run(() -> {
+      // the conversion renders presentations of all the elements, so it shouldn't hold off document updates
+      MiscUtil.computeInNonBlockingReadAction(() -> {
         Integer version = completionDataVersionRef.get();
-        if (version == null) {
-          version = cachedDataRef.get().version + 1;
-        }
         List<LookupElementWithMatcher> lookupElements = lookupElementsWithMatcherRef.get();
-        if (lookupElements == null) {
-          resultRef.set(List.of());
-          return;
+        if (lookupElements == null || version == null) {
+          resultRef.set(new CompletionList(List.of()));
+          return null;
         }
-        resultRef.set(convertLookupElementsWithMatcherToCompletionItems(
-            lookupElements, editor.getDocument(), MiscUtil.offsetToPosition(editor.getDocument(), editor.getCaretModel().getOffset()), version));
-      });
+        resultRef.set(toCompletionList(lookupElements, isRefinable(lookupElements),
+            editor.getDocument(), MiscUtil.offsetToPosition(editor.getDocument(), editor.getCaretModel().getOffset()), uri, version));
+        return null;
+      }, cancelChecker);
     } finally {
       WriteCommandAction.runWriteCommandAction(project, () -> Disposer.dispose(process));
     }
     return resultRef.get();
   }
 
+  /**
+   * Only the first elements in the arranger order are converted to items, see {@link #getItemLimit}.
+   * The list is incomplete if some elements are left out, so that the client asks again when the prefix grows
+   * and gets the re-filtered elements.
+   */
+  @NotNull
+  private CompletionList toCompletionList(@NotNull List<LookupElementWithMatcher> lookupElementsWithMatchers,
+                                          boolean refinable,
+                                          @NotNull Document document,
+                                          @NotNull Position position,
+                                          @NotNull String uri,
+                                          int completionDataVersion) {
+    final var limit = getItemLimit(lookupElementsWithMatchers);
+    final var truncated = lookupElementsWithMatchers.size() > limit;
+    if (truncated) {
+      Metrics.increment(TRUNCATED_COMPLETIONS_COUNTER);
+    }
+    final var items = convertLookupElementsWithMatcherToCompletionItems(
+        truncated ? lookupElementsWithMatchers.subList(0, limit) : lookupElementsWithMatchers,
+        document, position, uri, completionDataVersion);
+    return new CompletionList(!refinable || truncated, items);
+  }
+
+  /**
+   * The limit is {@code ideals.completion.maxItems}, halved for a one-char prefix at the caret and quartered
+   * for an empty one: the user is going to type more there, so the rest of the list is most likely never seen.
+   * The prefix of every element is a part of the text before the caret, and the contributors ignoring it
+   * (e.g. keywords or live templates) have an empty one, so the prefix at the caret is the longest of them.
+   */
+  static int getItemLimit(@NotNull List<LookupElementWithMatcher> lookupElementsWithMatchers) {
+    final var maxItems = Registry.intValue("ideals.completion.maxItems", 200);
+    if (maxItems <= 0) {
+      return Integer.MAX_VALUE;
+    }
+    final var prefixLength = lookupElementsWithMatchers.stream()
+        .mapToInt(element -> element.prefixMatcher().getPrefix().length())
+        .max()
+        .orElse(0);
+    return Math.max(1, maxItems >> Math.max(0, 2 - prefixLength));
+  }
+
   @NotNull
   private List<CompletionItem> convertLookupElementsWithMatcherToCompletionItems(
       @NotNull List<LookupElementWithMatcher> lookupElementsWithMatchers,
       @NotNull Document document,
       @NotNull Position position,
+      @NotNull String uri,
       int completionDataVersion
   ) {
     var result = new ArrayList<CompletionItem>();
@@ -360,7 +505,7 @@ final public class CompletionService implements Disposable {
                     );
                     range.setEnd(position);
                   }));
-      item.setData(new CompletionItemData(completionDataVersion, i));
+      item.setData(new CompletionItemData(uri, completionDataVersion, i));
       result.add(item);
     }
     return result;
@@ -376,50 +521,55 @@ final public class CompletionService implements Disposable {
       @NotNull Disposable disposable,
       @NotNull CompletionItem unresolved) {
     var cachedLookupElementWithMatcher = cachedData.lookupElementsWithMatcher.get(lookupElementIndex);
-    var copyToInsertRef = new Ref<PsiFile>();
-    ApplicationManager.getApplication().runReadAction(() -> {
-
-      copyToInsertRef.set(PsiFileFactory.getInstance(project).createFileFromText(
-          "copy",
-          cachedData.language,
-          cachedData.fileText,
-          true,
-          true,
-          true));
-      var copyThatCalledCompletion = (PsiFile) copyToInsertRef.get().copy();
-
-      copyThatCalledCompletionDocRef.set(MiscUtil.getDocument(copyThatCalledCompletion));
-      copyToInsertDocRef.set(MiscUtil.getDocument(copyToInsertRef.get()));
-    });
-
-    var copyToInsert = copyToInsertRef.get();
+    var snapshot = cachedData.snapshot;
+    copyThatCalledCompletionDocRef.set(snapshot.getTextDocument());
 
+    // the item is inserted into the PSI of the snapshot, which is restored afterwards, instead of parsing a copy
     ProgressManager.getInstance().runProcess(() ->
         ApplicationManager.getApplication().invokeAndWait(() -> {
-          var editor = EditorUtil.createEditor(disposable, copyToInsert,
-              cachedData.position);
-          CompletionInfo completionInfo = new CompletionInfo(editor, project);
-
-          //noinspection UnstableApiUsage
-          var targets =
-              IdeDocumentationTargetProvider.getInstance(project).documentationTargets(editor,
-                  copyToInsert, cachedLookupElementWithMatcher.lookupElement());
-          if (!targets.isEmpty()) {
-            unresolved.setDocumentation(toLspDocumentation(targets.get(0)));
+          var copyToInsert = snapshot.getPsiFile(project);
+          var editorDisposable = Disposer.newDisposable(disposable);
+          try {
+            insertItem(cachedData, cachedLookupElementWithMatcher, copyToInsert, editorDisposable,
+                copyToInsertDocRef, snippetBoundsRef, unresolved);
+          } finally {
+            Disposer.dispose(editorDisposable);
+            snapshot.restore(project);
           }
+        }), new LspProgressIndicator(cancelChecker));
+  }
 
-          handleInsert(cachedData, cachedLookupElementWithMatcher, editor, copyToInsert, completionInfo);
-          int caretOffset = editor.getCaretModel().getOffset();
-          snippetBoundsRef.set(new TextRange(caretOffset, caretOffset));
+  private void insertItem(@NotNull CompletionData cachedData,
+                          @NotNull LookupElementWithMatcher cachedLookupElementWithMatcher,
+                          @NotNull PsiFile copyToInsert,
+                          @NotNull Disposable editorDisposable,
+                          @NotNull Ref<Document> copyToInsertDocRef,
+                          @NotNull Ref<TextRange> snippetBoundsRef,
+                          @NotNull CompletionItem unresolved) {
+    var editor = EditorUtil.createEditor(editorDisposable, copyToInsert, cachedData.position);
+    CompletionInfo completionInfo = new CompletionInfo(editor, project);
+
+    //noinspection UnstableApiUsage
+    var targets =
+        IdeDocumentationTargetProvider.getInstance(project).documentationTargets(editor,
+            copyToInsert, cachedLookupElementWithMatcher.lookupElement());
+    if (!targets.isEmpty()) {
+      unresolved.setDocumentation(toLspDocumentation(targets.get(0)));
+    }
 
-          TemplateState templateState = TemplateManagerImpl.getTemplateState(editor);
-          var document = editor.getDocument();
-          if (templateState != null) {
-            handleSnippetsInsert(snippetBoundsRef, copyToInsert, templateState, document);
-          } else {
-            WriteCommandAction.runWriteCommandAction(project, null, null, () -> document.insertString(caretOffset, "$0"), copyToInsert);
-          }
-        }), new LspProgressIndicator(cancelChecker));
+    handleInsert(cachedData, cachedLookupElementWithMatcher, editor, copyToInsert, completionInfo);
+    int caretOffset = editor.getCaretModel().getOffset();
+    snippetBoundsRef.set(new TextRange(caretOffset, caretOffset));
+
+    TemplateState templateState = TemplateManagerImpl.getTemplateState(editor);
+    var document = editor.getDocument();
+    if (templateState != null) {
+      handleSnippetsInsert(snippetBoundsRef, copyToInsert, templateState, document);
+    } else {
+      WriteCommandAction.runWriteCommandAction(project, null, null, () -> document.insertString(caretOffset, "$0"), copyToInsert);
+    }
+    // the document of the snapshot is restored after the insertion
+    copyToInsertDocRef.set(new DocumentImpl(document.getImmutableCharSequence()));
   }
 
   private void handleSnippetsInsert(@NotNull Ref<TextRange> snippetBoundsRef,
@@ -506,15 +656,50 @@ final public class CompletionService implements Disposable {
     }
   }
 
-  private record CompletionData(
+  record CompletionData(
       @NotNull List<LookupElementWithMatcher> lookupElementsWithMatcher,
       int version,
       @NotNull Position position,
-      @NotNull String fileText, // file text at the moment of the completion invocation
-      @NotNull Language language
+      @NotNull CompletionSnapshot snapshot, // file text at the moment of the completion invocation
+      int caretOffset
   ) {
-    public static final CompletionData EMPTY_DATA = new CompletionData(
-        List.of(), 0, new Position(), "", Language.ANY);
+    // a rough estimate of a lookup element with its matcher and the data it retains besides PSI
+    private static final int LOOKUP_ELEMENT_BYTES = 512;
+
+    /**
+     * @return an estimate of the memory retained by the data: the text, which is parsed as well when items are resolved,
+     * and the lookup elements
+     */
+    long estimateBytes() {
+      return 4L * Character.BYTES * snapshot.getText().length() + (long) LOOKUP_ELEMENT_BYTES * lookupElementsWithMatcher.size();
+    }
+
+    /**
+     * @return the identifier chars typed at the caret since the completion if nothing else has changed in the file,
+     * otherwise null
+     */
+    @Nullable
+    String typedSince(@NotNull CharSequence currentText, int currentCaretOffset) {
+      if (!isRefinable(lookupElementsWithMatcher)) {
+        return null;
+      }
+      final var typedLength = currentCaretOffset - caretOffset;
+      final var fileText = snapshot.getText();
+      if (typedLength < 0 || currentText.length() != fileText.length() + typedLength) {
+        return null;
+      }
+      final var typed = currentText.subSequence(caretOffset, currentCaretOffset);
+      for (int i = 0; i < typed.length(); i++) {
+        if (!Character.isJavaIdentifierPart(typed.charAt(i))) {
+          return null;
+        }
+      }
+      if (!StringUtil.equals(currentText.subSequence(0, caretOffset), fileText.subSequence(0, caretOffset))
+          || !StringUtil.equals(currentText.subSequence(currentCaretOffset, currentText.length()), fileText.subSequence(caretOffset, fileText.length()))) {
+        return null;
+      }
+      return typed.toString();
+    }
   }
 
   @SuppressWarnings("UnstableApiUsage")
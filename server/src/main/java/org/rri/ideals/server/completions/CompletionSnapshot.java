@@ -0,0 +1,109 @@
+package org.rri.ideals.server.completions;
+
+import com.intellij.lang.Language;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.util.concurrency.ThreadingAssertions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.util.Metrics;
+
+/**
+ * The text of a file at the moment of a completion, parsed once for all the resolves of the completion items.
+ * <p>
+ * Every resolve inserts its item into the PSI and then {@link #restore}s the text, so that only the changed range
+ * is reparsed. The PSI is accessed in the EDT only.
+ */
+final class CompletionSnapshot {
+  public static final String PARSES_COUNTER = "completion.snapshot.parses";
+
+  @NotNull
+  private final CharSequence text;
+  @NotNull
+  private final Language language;
+  @NotNull
+  private final Document textDocument;
+  @Nullable
+  private PsiFile psiFile;
+
+  /**
+   * @param text an immutable text, e.g. {@link Document#getImmutableCharSequence()}
+   */
+  CompletionSnapshot(@NotNull CharSequence text, @NotNull Language language) {
+    this.text = text;
+    this.language = language;
+    this.textDocument = new DocumentImpl(text);
+  }
+
+  @NotNull
+  CharSequence getText() {
+    return text;
+  }
+
+  @NotNull
+  Language getLanguage() {
+    return language;
+  }
+
+  /**
+   * @return a document with the text, which is never modified
+   */
+  @NotNull
+  Document getTextDocument() {
+    return textDocument;
+  }
+
+  /**
+   * @return the PSI of the text, parsed on the first call
+   */
+  @NotNull
+  PsiFile getPsiFile(@NotNull Project project) {
+    ThreadingAssertions.assertEventDispatchThread();
+    if (psiFile == null || !psiFile.isValid()) {
+      psiFile = PsiFileFactory.getInstance(project).createFileFromText("copy", language, text, true, true, true);
+      Metrics.increment(PARSES_COUNTER);
+    }
+    return psiFile;
+  }
+
+  /**
+   * Replaces the range changed since the snapshot with the original text. The PSI is dropped if that fails.
+   */
+  void restore(@NotNull Project project) {
+    ThreadingAssertions.assertEventDispatchThread();
+    final var file = psiFile;
+    if (file == null) {
+      return;
+    }
+    try {
+      final var document = file.getViewProvider().getDocument();
+      final var documentManager = PsiDocumentManager.getInstance(project);
+      documentManager.doPostponedOperationsAndUnblockDocument(document);
+
+      final var current = document.getImmutableCharSequence();
+      final var prefix = StringUtil.commonPrefixLength(current, text);
+      if (prefix == current.length() && prefix == text.length()) {
+        return;
+      }
+      final var suffix = Math.min(StringUtil.commonSuffixLength(current, text),
+          Math.min(current.length(), text.length()) - prefix);
+      WriteCommandAction.runWriteCommandAction(project, null, null,
+          () -> document.replaceString(prefix, current.length() - suffix, text.subSequence(prefix, text.length() - suffix)),
+          file);
+      documentManager.commitDocument(document);
+
+      if (!StringUtil.equals(document.getImmutableCharSequence(), text)) {
+        psiFile = null;
+      }
+    } catch (Throwable e) {
+      psiFile = null;
+      throw e;
+    }
+  }
+}
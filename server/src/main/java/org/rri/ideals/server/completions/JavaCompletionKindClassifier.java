@@ -0,0 +1,36 @@
+package org.rri.ideals.server.completions;
+
+import com.intellij.codeInsight.lookup.LookupElement;
+import com.intellij.psi.*;
+import org.eclipse.lsp4j.CompletionItemKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public class JavaCompletionKindClassifier implements CompletionKindClassifier {
+  @Override
+  public @Nullable CompletionItemKind classify(@NotNull LookupElement element, @NotNull PsiElement psiElement) {
+    if (psiElement instanceof PsiMethod) {
+      return CompletionItemKind.Method;
+    } else if (psiElement instanceof PsiTypeParameter) {
+      return CompletionItemKind.TypeParameter;
+    } else if (psiElement instanceof PsiClass psiClass) {
+      if (psiClass.isInterface()) {  // annotation types too
+        return CompletionItemKind.Interface;
+      }
+      return psiClass.isEnum() ? CompletionItemKind.Enum : CompletionItemKind.Class;
+    } else if (psiElement instanceof PsiEnumConstant) {
+      return CompletionItemKind.EnumMember;
+    } else if (psiElement instanceof PsiField field) {
+      return field.hasModifierProperty(PsiModifier.STATIC) && field.hasModifierProperty(PsiModifier.FINAL)
+          ? CompletionItemKind.Constant
+          : CompletionItemKind.Field;
+    } else if (psiElement instanceof PsiVariable) {
+      return CompletionItemKind.Variable;
+    } else if (psiElement instanceof PsiPackage || psiElement instanceof PsiJavaModule) {
+      return CompletionItemKind.Module;
+    } else if (psiElement instanceof PsiKeyword) {
+      return CompletionItemKind.Keyword;
+    }
+    return null;
+  }
+}
@@ -1,8 +1,10 @@
 package org.rri.ideals.server.extensions;
 
+import com.intellij.openapi.application.ReadAction;
 import org.jetbrains.annotations.NotNull;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.commands.LspCommand;
+import org.rri.ideals.server.util.MiscUtil;
 
 import java.util.function.Supplier;
 
@@ -13,12 +15,15 @@ public class ClassFileContentsCommand extends LspCommand<String> {
     }
 
     @Override
-    protected boolean isCancellable() {
-        return false;
+    protected @NotNull String getMethod() {
+        return "experimental/classFileContents";
     }
 
     @Override
     protected String execute(@NotNull ExecutorContext ctx) {
-        return ctx.getEditor().getDocument().getText();
+        return ReadAction.compute(() -> {
+            final var document = MiscUtil.getDocument(ctx.getPsiFile());
+            return document != null ? document.getText() : null;
+        });
     }
 }
@@ -15,6 +15,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.commands.LspCommand;
+import org.rri.ideals.server.util.MiscUtil;
 
 import java.util.Arrays;
 import java.util.List;
@@ -34,15 +35,25 @@ public class RunnablesCommand extends LspCommand<List<Runnable>> {
     }
 
     @Override
-    protected boolean isCancellable() {
-        return false;
+    protected @NotNull String getMethod() {
+        return "experimental/runnables";
+    }
+
+    // run configurations are produced on the EDT
+    @Override
+    protected boolean isRunInEdt() {
+        return true;
     }
 
     @Override
     protected List<Runnable> execute(@NotNull ExecutorContext ctx) {
-        final var project = ctx.getEditor().getProject();
+        final var project = ctx.getPsiFile().getProject();
+        final var document = MiscUtil.getDocument(ctx.getPsiFile());
+        if (document == null) {
+            return List.of();
+        }
 
-        return DaemonCodeAnalyzerImpl.getLineMarkers(ctx.getEditor().getDocument(), project)
+        return DaemonCodeAnalyzerImpl.getLineMarkers(document, project)
                 .stream()
                 .flatMap(lineMarkerInfo -> {
                     var gutter = lineMarkerInfo.createGutterRenderer();
@@ -14,6 +14,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.util.MiscUtil;
+import org.rri.ideals.server.util.RequestLane;
 import org.rri.ideals.server.util.TextUtil;
 
 import java.util.List;
@@ -41,9 +42,9 @@ final public class FormattingCommand extends FormattingCommandBase {
   @NotNull
   @Override
   protected List<? extends TextEdit> execute(@NotNull ExecutorContext context) {
-    // create reformat results
+    // create reformat results; only the reformatting of the copy, which is a write action, needs the EDT
     LOG.info(getMessageSupplier().get());
-    return TextUtil.differenceAfterAction(
+    return TextUtil.differenceAfterActionInEdt(
         context.getPsiFile(),
         (copy) -> reformatPsiFile(context, copy));
   }
@@ -84,8 +85,20 @@ final public class FormattingCommand extends FormattingCommandBase {
   }
 
   @Override
-  protected boolean isCancellable() {
-    return true;
+  protected @NotNull String getMethod() {
+    return lspRange == null ? "textDocument/formatting" : "textDocument/rangeFormatting";
+  }
+
+  // formatting of a whole file may take a while
+  @Override
+  protected @NotNull RequestLane getLane() {
+    return lspRange == null ? RequestLane.BULK : RequestLane.INTERACTIVE;
+  }
+
+  // the copy is made and compared with the file in read actions of its own
+  @Override
+  protected boolean isRunInReadAction() {
+    return false;
   }
 
 }
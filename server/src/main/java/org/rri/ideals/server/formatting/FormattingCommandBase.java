@@ -21,6 +21,11 @@ public abstract class FormattingCommandBase extends LspCommand<List<? extends Te
     this.formattingOptions = formattingOptions;
   }
 
+  @Override
+  protected boolean isSkippedForLargeFiles() {
+    return true;
+  }
+
   @NotNull
   private CodeStyleSettings getConfiguredSettings(@NotNull PsiFile copy) {
     var codeStyleSettings =
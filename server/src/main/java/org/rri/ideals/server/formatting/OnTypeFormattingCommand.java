@@ -6,7 +6,6 @@ import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorModificationUtilEx;
-import com.intellij.openapi.editor.LogicalPosition;
 import com.intellij.openapi.editor.actionSystem.TypedAction;
 import com.intellij.openapi.editor.ex.EditorEx;
 import com.intellij.openapi.util.Disposer;
@@ -18,6 +17,7 @@ import org.eclipse.lsp4j.TextEdit;
 import org.jetbrains.annotations.NotNull;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.util.EditorUtil;
+import org.rri.ideals.server.util.MiscUtil;
 import org.rri.ideals.server.util.TextUtil;
 
 import java.util.List;
@@ -43,8 +43,13 @@ public class OnTypeFormattingCommand extends FormattingCommandBase {
   }
 
   @Override
-  protected boolean isCancellable() {
-    return false;
+  protected @NotNull String getMethod() {
+    return "textDocument/onTypeFormatting";
+  }
+
+  @Override
+  protected boolean isRunInEdt() {
+    return true;
   }
 
   @Override
@@ -79,9 +84,11 @@ public class OnTypeFormattingCommand extends FormattingCommandBase {
   }
 
   private boolean deleteTypedChar(@NotNull Editor editor) {
-    var insertedCharPos = editor.getCaretModel().getOffset() - 1;
+    // the position is in the client's encoding, so it can't be used as a logical position
+    final var offset = MiscUtil.positionToOffset(editor.getDocument(), position);
+    var insertedCharPos = offset - 1;
 
-    if (editor.getDocument().getText().charAt(insertedCharPos) != triggerCharacter) {
+    if (insertedCharPos < 0 || editor.getDocument().getText().charAt(insertedCharPos) != triggerCharacter) {
       // if triggered character and actual are not the same
       LOG.warn("Inserted and triggered characters are not the same");
       return false;
@@ -96,8 +103,7 @@ public class OnTypeFormattingCommand extends FormattingCommandBase {
             () -> EditorModificationUtilEx.deleteSelectedText(editor)
         ));
 
-    editor.getCaretModel().moveToLogicalPosition(
-        new LogicalPosition(position.getLine(), position.getCharacter() - 1));
+    editor.getCaretModel().moveToOffset(offset - 1);
     return true;
   }
 }
@@ -22,19 +22,19 @@ public class HoverCommand extends LspCommand<Hover> {
     }
 
     @Override
-    protected boolean isCancellable() {
-        return false;
+    protected @NotNull String getMethod() {
+        return "textDocument/hover";
     }
 
     @Override
-    protected boolean isRunInEdt() {
-        return false;
+    protected boolean isBoundToDocument() {
+        return true;
     }
 
     @SuppressWarnings("UnstableApiUsage")
     @Override
     protected Hover execute(@NotNull ExecutorContext ctx) {
-        return ReadAction.compute(() -> TargetsKt.documentationTargets(ctx.getPsiFile(), ctx.getEditor().getCaretModel().getOffset()).stream()
+        return ReadAction.compute(() -> TargetsKt.documentationTargets(ctx.getPsiFile(), ctx.getOffset()).stream()
                 .findFirst()
                 .flatMap(target -> {
                     //noinspection OverrideOnly
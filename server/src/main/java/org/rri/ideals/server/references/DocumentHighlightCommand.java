@@ -48,8 +48,23 @@ public class DocumentHighlightCommand extends LspCommand<List<? extends Document
   }
 
   @Override
-  protected boolean isCancellable() {
-    return false;
+  protected @NotNull String getMethod() {
+    return "textDocument/documentHighlight";
+  }
+
+  @Override
+  protected boolean isEditorRequired() {
+    return true;
+  }
+
+  @Override
+  protected boolean isSkippedForLargeFiles() {
+    return true;
+  }
+
+  @Override
+  protected boolean isBoundToDocument() {
+    return true;
   }
 
   @Override
@@ -16,6 +16,11 @@ public class FindDefinitionCommand extends FindDefinitionCommandBase {
     return () -> "Definition call";
   }
 
+  @Override
+  protected @NotNull String getMethod() {
+    return "textDocument/definition";
+  }
+
   @Override
   protected @NotNull Stream<PsiElement> findDefinitions(@NotNull Editor editor, int offset) {
     final var reference = TargetElementUtil.findReference(editor, offset);
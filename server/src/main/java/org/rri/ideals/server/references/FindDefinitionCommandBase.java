@@ -1,6 +1,5 @@
 package org.rri.ideals.server.references;
 
-import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.extensions.ExtensionPointName;
 import com.intellij.openapi.fileEditor.ex.FileEditorProviderManager;
@@ -11,6 +10,7 @@ import com.intellij.openapi.fileEditor.impl.EditorFileSwapper;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiCompiledFile;
 import com.intellij.psi.PsiElement;
 import kotlinx.coroutines.flow.FlowKt;
 import org.eclipse.lsp4j.Location;
@@ -22,6 +22,7 @@ import org.jetbrains.annotations.Nullable;
 import org.rri.ideals.server.LspPath;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.commands.LspCommand;
+import org.rri.ideals.server.util.EditorUtil;
 import org.rri.ideals.server.util.MiscUtil;
 
 import java.util.Collections;
@@ -35,39 +36,63 @@ abstract class FindDefinitionCommandBase extends LspCommand<Either<List<? extend
       new ExtensionPointName<>("com.intellij.editorFileSwapper");
 
   @Override
-  protected boolean isCancellable() {
+  protected boolean isBoundToDocument() {
+    return true;
+  }
+
+  // the lookup is done in a background read action, only the source locations of compiled elements need the EDT
+  @Override
+  protected boolean isRunInReadAction() {
     return false;
   }
 
   @Override
   protected @NotNull Either<List<? extends Location>, @NotNull List<? extends LocationLink>> execute(@NotNull ExecutorContext ctx) {
-    final var editor = ctx.getEditor();
     final var file = ctx.getPsiFile();
-    final var doc = editor.getDocument();
-    final var offset = editor.getCaretModel().getOffset();
-    
-    PsiElement originalElem = file.findElementAt(offset);
-    Range originalRange = MiscUtil.getPsiElementRange(doc, originalElem);
-
-    var definitions = findDefinitions(editor, offset)
-        .filter(Objects::nonNull)
-        .map(targetElem -> {
-          if (targetElem.getContainingFile() == null) {
-            return null;
-          }
-          final var loc = findSourceLocation(file.getProject(), targetElem);
-          if (loc != null) {
-            return new LocationLink(loc.getUri(), loc.getRange(), loc.getRange(), originalRange);
-          } else {
-            Document targetDoc = targetElem.getContainingFile().equals(file)
-                ? doc : MiscUtil.getDocument(targetElem.getContainingFile());
-            return MiscUtil.psiElementToLocationLink(targetElem, targetDoc, originalRange);
-          }
-        })
+    final var offset = ctx.getOffset();
+
+    final var definitions = MiscUtil.computeInNonBlockingReadAction(() -> {
+      final var editor = EditorUtil.createReadOnlyEditor(file, offset);
+      final var originalRange = MiscUtil.getPsiElementRange(editor.getDocument(), file.findElementAt(offset));
+
+      return findDefinitions(editor, offset)
+          .filter(Objects::nonNull)
+          .filter(targetElem -> targetElem.getContainingFile() != null)
+          .map(targetElem -> targetElem.getContainingFile().getOriginalFile() instanceof PsiCompiledFile
+              ? new Definition(targetElem, originalRange, null)
+              : new Definition(targetElem, originalRange, MiscUtil.psiElementToLocationLink(targetElem, originalRange)))
+          .toList();
+    }, ctx.getCancelToken());
+
+    final var links = definitions.stream()
+        .map(definition -> definition.link() != null
+            ? definition.link()
+            : MiscUtil.computeInEDTAndWait(() -> findCompiledElementLocation(file.getProject(), definition)))
         .filter(Objects::nonNull)
         .collect(Collectors.toList());
 
-    return Either.forRight(definitions);
+    return Either.forRight(links);
+  }
+
+  /**
+   * A found definition; the link of an element of a compiled file is found later, since its sources are looked up
+   * with an editor.
+   */
+  private record Definition(@NotNull PsiElement element, @Nullable Range originalRange, @Nullable LocationLink link) {
+  }
+
+  @Nullable
+  private static LocationLink findCompiledElementLocation(@NotNull Project project, @NotNull Definition definition) {
+    final var targetElem = definition.element();
+    if (!targetElem.isValid()) {
+      return null;
+    }
+    final var loc = findSourceLocation(project, targetElem);
+    if (loc != null) {
+      return new LocationLink(loc.getUri(), loc.getRange(), loc.getRange(), definition.originalRange());
+    } else {
+      return MiscUtil.psiElementToLocationLink(targetElem, definition.originalRange());
+    }
   }
 
   /**
@@ -79,11 +104,6 @@ abstract class FindDefinitionCommandBase extends LspCommand<Either<List<? extend
   @Nullable
   private static Location findSourceLocation(@NotNull Project project, @NotNull PsiElement element) {
     final var file = element.getContainingFile().getOriginalFile();
-    final var doc = MiscUtil.getDocument(file);
-    if (doc == null) {
-      return null;
-    }
-
     final var location = MiscUtil.psiElementToLocation(element, file);
     if (location == null) {
       return null;
@@ -100,7 +120,8 @@ abstract class FindDefinitionCommandBase extends LspCommand<Either<List<? extend
       if (psiAwareEditor == null) {
         return location;
       }
-      psiAwareEditor.getEditor().getCaretModel().moveToOffset(MiscUtil.positionToOffset(doc, location.getRange().getStart()));
+      final var psiEditor = psiAwareEditor.getEditor();
+      psiEditor.getCaretModel().moveToOffset(MiscUtil.positionToOffset(psiEditor.getDocument(), location.getRange().getStart()));
 
       final var newFilePair = EDITOR_FILE_SWAPPER_EP_NAME.getExtensionList().stream()
               .map(fileSwapper -> fileSwapper.getFileToSwapTo(project, editor))
@@ -116,15 +137,11 @@ abstract class FindDefinitionCommandBase extends LspCommand<Either<List<? extend
       if (sourcePsiFile == null) {
         return location;
       }
-      final var sourceDoc = MiscUtil.getDocument(sourcePsiFile);
-      if (sourceDoc == null) {
-        return location;
-      }
       final var virtualFile = newFilePair.get().getFirst();
       final var offset = newFilePair.get().getFirst() != null ? newFilePair.get().getSecond() : 0;
       assert virtualFile != null;
       return new Location(LspPath.fromVirtualFile(virtualFile).toLspUri(),
-              new Range(MiscUtil.offsetToPosition(sourceDoc, offset), MiscUtil.offsetToPosition(sourceDoc, offset)));
+              new Range(MiscUtil.offsetToPosition(sourcePsiFile, offset), MiscUtil.offsetToPosition(sourcePsiFile, offset)));
     } finally {
       Disposer.dispose(disposable);
     }
@@ -1,12 +1,10 @@
 package org.rri.ideals.server.references;
 
 import com.intellij.codeInsight.TargetElementUtil;
-import com.intellij.codeInsight.navigation.ImplementationSearcher;
-import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.searches.DefinitionsScopedSearch;
 import org.jetbrains.annotations.NotNull;
-import org.rri.ideals.server.util.MiscUtil;
 
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -18,18 +16,30 @@ public class FindImplementationCommand extends FindDefinitionCommandBase {
     return () -> "Implementation call";
   }
 
+  @Override
+  protected @NotNull String getMethod() {
+    return "textDocument/implementation";
+  }
+
   @Override
   protected @NotNull Stream<PsiElement> findDefinitions(@NotNull Editor editor, int offset) {
-    final var element = TargetElementUtil.findTargetElement(editor, TargetElementUtil.getInstance().getAllAccepted());
-    final var onRef = ReadAction.<Boolean, RuntimeException>compute(() ->
-      TargetElementUtil.getInstance().findTargetElement(editor,
-          TargetElementUtil.getInstance().getDefinitionSearchFlags()
-              & Integer.reverse(TargetElementUtil.REFERENCED_ELEMENT_ACCEPTED | TargetElementUtil.LOOKUP_ITEM_ACCEPTED),
-          offset) == null);
-    final var shouldIncludeSelf = ReadAction.<Boolean, RuntimeException>compute(() ->
-        element == null || TargetElementUtil.getInstance().includeSelfInGotoImplementation(element)
-    );
-    final var includeSelf = onRef && shouldIncludeSelf;
-    return MiscUtil.streamOf(new ImplementationSearcher().searchImplementations(element, editor, includeSelf, onRef));
+    final var targetElementUtil = TargetElementUtil.getInstance();
+    final var element = TargetElementUtil.findTargetElement(editor, targetElementUtil.getAllAccepted());
+    if (element == null) {
+      return Stream.empty();
+    }
+    final var onRef = targetElementUtil.findTargetElement(editor,
+        targetElementUtil.getDefinitionSearchFlags()
+            & Integer.reverse(TargetElementUtil.REFERENCED_ELEMENT_ACCEPTED | TargetElementUtil.LOOKUP_ITEM_ACCEPTED),
+        offset) == null;
+    final var includeSelf = onRef && targetElementUtil.includeSelfInGotoImplementation(element);
+
+    // the same search as ImplementationSearcher does, without its modal progress, so that it can run in a read action
+    final var implementations = DefinitionsScopedSearch.search(element, targetElementUtil.getSearchScope(editor, element), true)
+        .findAll();
+    if (implementations.isEmpty()) {
+      return onRef ? Stream.of(element) : Stream.empty();
+    }
+    return includeSelf ? Stream.concat(Stream.of(element), implementations.stream()) : implementations.stream();
   }
 }
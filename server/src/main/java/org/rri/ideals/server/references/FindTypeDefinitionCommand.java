@@ -16,6 +16,11 @@ public class FindTypeDefinitionCommand extends FindDefinitionCommandBase {
     return () -> "TypeDefinition call";
   }
 
+  @Override
+  protected @NotNull String getMethod() {
+    return "textDocument/typeDefinition";
+  }
+
   @Override
   protected @NotNull Stream<PsiElement> findDefinitions(@NotNull Editor editor, int offset) {
     return MiscUtil.streamOf(GotoTypeDeclarationAction.findSymbolTypes(editor, offset));
@@ -9,7 +9,6 @@ import com.intellij.find.findUsages.FindUsagesOptions;
 import com.intellij.find.impl.FindManagerImpl;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
-import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.psi.PsiElement;
@@ -35,8 +34,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.commands.LspCommand;
-import org.rri.ideals.server.util.LspProgressIndicator;
 import org.rri.ideals.server.util.MiscUtil;
+import org.rri.ideals.server.util.RequestLane;
 
 import java.util.*;
 import java.util.concurrent.CancellationException;
@@ -45,6 +44,7 @@ import java.util.stream.Collectors;
 
 public class FindUsagesCommand extends LspCommand<List<? extends Location>> {
   private static final Logger LOG = Logger.getInstance(FindUsagesCommand.class);
+  private static final int MAX_SEARCH_LOOKUPS = 3;
 
   @Override
   protected @NotNull Supplier<@NotNull String> getMessageSupplier() {
@@ -52,65 +52,108 @@ public class FindUsagesCommand extends LspCommand<List<? extends Location>> {
   }
 
   @Override
-  protected boolean isCancellable() {
+  protected @NotNull String getMethod() {
+    return "textDocument/references";
+  }
+
+  @Override
+  protected @NotNull RequestLane getLane() {
+    return RequestLane.BULK;
+  }
+
+  @Override
+  protected boolean isEditorRequired() {
     return true;
   }
 
+  // the search options are taken from the find usages dialog, which has to be created in the EDT
+  @Override
+  protected boolean isRunInReadAction() {
+    return false;
+  }
+
   @Override
   protected @NotNull List<? extends Location> execute(@NotNull ExecutorContext ctx) {
     final var editor = ctx.getEditor();
-    final var file = ctx.getPsiFile();
+    final var project = ctx.getPsiFile().getProject();
+
+    // the search is found in the EDT, so a write action may invalidate its elements before the read action
+    // is (re)started; then it's found anew
+    for (int attempt = 0; attempt < MAX_SEARCH_LOOKUPS; attempt++) {
+      final var search = MiscUtil.computeInEDTAndWait(() -> {
+        final var target = TargetElementUtil.findTargetElement(editor, TargetElementUtil.getInstance().getAllAccepted());
+        return target != null ? prepareSearch(project, target) : null;
+      });
+      if (search == null) {
+        return List.of();
+      }
 
-    return Optional.ofNullable(TargetElementUtil.findTargetElement(editor, TargetElementUtil.getInstance().getAllAccepted()))
-        .map(target -> findUsages(file.getProject(), target, ctx.getCancelToken()))
-        .orElse(List.of());
+      final var usages = MiscUtil.computeInNonBlockingReadAction(
+          () -> search.isValid() ? findUsages(search.target(), search.searcher(), ctx.getCancelToken()) : null,
+          ctx.getCancelToken());
+      if (usages != null) {
+        return usages;
+      }
+    }
+    LOG.warn("Usage search target is invalidated repeatedly, giving up");
+    return List.of();
   }
 
-  private static @NotNull List<@NotNull Location> findUsages(@NotNull Project project,
-                                                             @NotNull PsiElement target,
-                                                             @Nullable CancelChecker cancelToken) {
+  private record UsageSearch(@NotNull PsiElement target,
+                             @Nullable UsageSearcher searcher,
+                             PsiElement @NotNull [] searchedElements) {
+    boolean isValid() {
+      return target.isValid() && Arrays.stream(searchedElements).allMatch(PsiElement::isValid);
+    }
+  }
+
+  private static @NotNull UsageSearch prepareSearch(@NotNull Project project, @NotNull PsiElement target) {
     var manager = ((FindManagerImpl) FindManager.getInstance(project)).getFindUsagesManager();
     var handler = manager.getFindUsagesHandler(target, FindUsagesHandlerFactory.OperationMode.USAGES_WITH_DEFAULT_OPTIONS);
+    if (handler == null) {
+      return new UsageSearch(target, null, PsiElement.EMPTY_ARRAY);
+    }
 
-    return ProgressManager.getInstance().runProcess(() -> {
-      List<Location> result;
-
-      if (handler != null) {
-        var dialog = handler.getFindUsagesDialog(false, false, false);
-        dialog.close(DialogWrapper.OK_EXIT_CODE);
-        var options = dialog.calcFindUsagesOptions();
-        PsiElement[] primaryElements = handler.getPrimaryElements();
-        PsiElement[] secondaryElements = handler.getSecondaryElements();
-        UsageSearcher searcher = createUsageSearcher(primaryElements, secondaryElements, handler, options, project);
-        Set<Location> saver = ContainerUtil.newConcurrentSet();
-        searcher.generate(usage -> {
-          if (cancelToken != null) {
-            try {
-              cancelToken.checkCanceled();
-            } catch (CancellationException e) {
-              return false;
-            }
-          }
-          if (usage instanceof final UsageInfo2UsageAdapter ui2ua && !ui2ua.isNonCodeUsage()) {
-            var elem = ui2ua.getElement();
-            var loc = MiscUtil.psiElementToLocation(elem);
-            if (loc != null) {
-              saver.add(loc);
-            }
-          }
-          return true;
-        });
-        result = new ArrayList<>(saver);
-      } else {
-        result = ReferencesSearch.search(target).findAll().stream()
-            .map(PsiReference::getElement)
-            .map(MiscUtil::psiElementToLocation)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
-      }
+    var dialog = handler.getFindUsagesDialog(false, false, false);
+    dialog.close(DialogWrapper.OK_EXIT_CODE);
+    var options = dialog.calcFindUsagesOptions();
+    PsiElement[] primaryElements = handler.getPrimaryElements();
+    PsiElement[] secondaryElements = handler.getSecondaryElements();
+    return new UsageSearch(target,
+        createUsageSearcher(primaryElements, secondaryElements, handler, options, project),
+        ArrayUtil.mergeArrays(primaryElements, secondaryElements, PsiElement.ARRAY_FACTORY));
+  }
+
+  private static @NotNull List<@NotNull Location> findUsages(@NotNull PsiElement target,
+                                                             @Nullable UsageSearcher searcher,
+                                                             @Nullable CancelChecker cancelToken) {
+    if (searcher == null) {
+      return ReferencesSearch.search(target).findAll().stream()
+          .map(PsiReference::getElement)
+          .map(MiscUtil::psiElementToLocation)
+          .filter(Objects::nonNull)
+          .collect(Collectors.toList());
+    }
 
-      return result;
-    }, new LspProgressIndicator(cancelToken));
+    Set<Location> saver = ContainerUtil.newConcurrentSet();
+    searcher.generate(usage -> {
+      if (cancelToken != null) {
+        try {
+          cancelToken.checkCanceled();
+        } catch (CancellationException e) {
+          return false;
+        }
+      }
+      if (usage instanceof final UsageInfo2UsageAdapter ui2ua && !ui2ua.isNonCodeUsage()) {
+        var elem = ui2ua.getElement();
+        var loc = MiscUtil.psiElementToLocation(elem);
+        if (loc != null) {
+          saver.add(loc);
+        }
+      }
+      return true;
+    });
+    return new ArrayList<>(saver);
   }
 
   // Took this function from com.intellij.find.findUsages.FindUsagesManager.
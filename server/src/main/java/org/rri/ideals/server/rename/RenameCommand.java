@@ -1,10 +1,10 @@
 package org.rri.ideals.server.rename;
 
 import com.intellij.codeInsight.TargetElementUtil;
-import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
-import com.intellij.openapi.util.Segment;
 import com.intellij.psi.PsiElement;
 import com.intellij.refactoring.rename.RenameProcessor;
 import com.intellij.refactoring.rename.RenamePsiElementProcessor;
@@ -16,7 +16,9 @@ import org.jetbrains.annotations.Nullable;
 import org.rri.ideals.server.LspPath;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.commands.LspCommand;
+import org.rri.ideals.server.util.EditorUtil;
 import org.rri.ideals.server.util.MiscUtil;
+import org.rri.ideals.server.util.RequestLane;
 
 import java.util.*;
 import java.util.function.Supplier;
@@ -36,34 +38,62 @@ public class RenameCommand extends LspCommand<WorkspaceEdit> {
   }
 
   @Override
-  protected boolean isCancellable() {
+  protected @NotNull String getMethod() {
+    return "textDocument/rename";
+  }
+
+  @Override
+  protected @NotNull RequestLane getLane() {
+    return RequestLane.BULK;
+  }
+
+  // the element is looked up and the usages are searched in background read actions,
+  // only the substitution of the element, which may ask the user, is done in the EDT
+  @Override
+  protected boolean isRunInReadAction() {
     return false;
   }
 
   @Override
   protected @Nullable WorkspaceEdit execute(@NotNull ExecutorContext ctx) {
     final var file = ctx.getPsiFile();
-    final var editor = ctx.getEditor();
-    var elementRef = new Ref<PsiElement>();
-    var elementToRename = TargetElementUtil.findTargetElement(editor, TargetElementUtil.getInstance().getAllAccepted());
-
-    if (elementToRename != null) {
-      final var processor = RenamePsiElementProcessor.forElement(elementToRename);
-      final var newElementToRename = processor.substituteElementToRename(elementToRename, editor);
-      if (newElementToRename != null) {
-        elementToRename = newElementToRename;
-      }
+    final var offset = ctx.getOffset();
+    final var editorRef = new Ref<Editor>();
+    final var foundElement = MiscUtil.computeInNonBlockingReadAction(() -> {
+      editorRef.set(EditorUtil.createReadOnlyEditor(file, offset));
+      return TargetElementUtil.findTargetElement(editorRef.get(), TargetElementUtil.getInstance().getAllAccepted());
+    }, ctx.getCancelToken());
+
+    if (foundElement == null) {
+      return null;
     }
-    elementRef.set(elementToRename);
 
-    if (elementRef.get() == null) {
+    final var elementToRename = MiscUtil.computeInEDTAndWait(() -> {
+      if (!foundElement.isValid()) {
+        return null;
+      }
+      final var processor = RenamePsiElementProcessor.forElement(foundElement);
+      final var newElementToRename = processor.substituteElementToRename(foundElement, editorRef.get());
+      return newElementToRename != null ? newElementToRename : foundElement;
+    });
+
+    if (elementToRename == null) {
       return null;
     }
 
+    return MiscUtil.computeInNonBlockingReadAction(() -> {
+      if (!elementToRename.isValid()) {
+        return null;
+      }
+      return findRenameEdits(file.getProject(), elementToRename);
+    }, ctx.getCancelToken());
+  }
+
+  private @NotNull WorkspaceEdit findRenameEdits(@NotNull Project project, @NotNull PsiElement elementToRename) {
     final var elemToName = new LinkedHashMap<PsiElement, String>();
-    elemToName.put(elementRef.get(), newName);
-    final var renamer = new RenameProcessor(file.getProject(), elementRef.get(), newName, false, false);
-    renamer.prepareRenaming(elementRef.get(), newName, elemToName);
+    elemToName.put(elementToRename, newName);
+    final var renamer = new RenameProcessor(project, elementToRename, newName, false, false);
+    renamer.prepareRenaming(elementToRename, newName, elemToName);
     elemToName.forEach(renamer::addElement);
 
     final var usageEdits = Arrays.stream(renamer.findUsages())
@@ -97,16 +127,7 @@ public class RenameCommand extends LspCommand<WorkspaceEdit> {
       return null;
     }
     final var uri = LspPath.fromVirtualFile(psiFile.getVirtualFile()).toLspUri();
-    final var doc = MiscUtil.getDocument(psiFile);
-    if (doc == null) {
-      return null;
-    }
-    return new Location(uri, segmentToRange(doc, segment));
-  }
-
-  private static @NotNull Range segmentToRange(@NotNull Document doc, @NotNull Segment segment) {
-    return new Range(MiscUtil.offsetToPosition(doc, segment.getStartOffset()),
-        MiscUtil.offsetToPosition(doc, segment.getEndOffset()));
+    return new Location(uri, MiscUtil.getRange(psiFile, segment));
   }
 
   private @NotNull Either<@NotNull TextDocumentEdit, @NotNull ResourceOperation> convertEntry(
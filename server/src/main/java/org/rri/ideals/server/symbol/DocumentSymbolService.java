@@ -2,14 +2,13 @@ package org.rri.ideals.server.symbol;
 
 import com.intellij.ide.structureView.*;
 import com.intellij.ide.util.treeView.smartTree.TreeElement;
+import com.intellij.lang.LanguageStructureViewBuilder;
 import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.editor.ex.util.EditorUtil;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
-import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
@@ -23,12 +22,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.rri.ideals.server.commands.ExecutorContext;
 import org.rri.ideals.server.symbol.util.SymbolUtil;
-import org.rri.ideals.server.util.LspProgressIndicator;
 import org.rri.ideals.server.util.MiscUtil;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
 import static com.intellij.ide.actions.ViewStructureAction.createStructureViewModel;
 
@@ -49,11 +46,8 @@ final public class DocumentSymbolService {
     final var psiFile = executorContext.getPsiFile();
     final var cancelChecker = executorContext.getCancelToken();
     assert cancelChecker != null;
-    return ProgressManager.getInstance().runProcess(() -> {
-      StructureViewTreeElement root = Optional.ofNullable(
-              FileEditorManager.getInstance(psiFile.getProject()).getSelectedEditor(psiFile.getVirtualFile()))
-          .map(this::getViewTreeElement)
-          .orElse(null);
+    return MiscUtil.computeInNonBlockingReadAction(() -> {
+      StructureViewTreeElement root = getViewTreeElement(psiFile);
       if (root == null) {
         return List.of();
       }
@@ -66,20 +60,26 @@ final public class DocumentSymbolService {
       }
       rootSymbol.setKind(SymbolKind.File);
       return List.of(Either.forRight(rootSymbol));
-    }, new LspProgressIndicator(cancelChecker));
+    }, cancelChecker);
   }
 
   @Nullable
-  private StructureViewTreeElement getViewTreeElement(@NotNull FileEditor fileEditor) {
+  private StructureViewTreeElement getViewTreeElement(@NotNull PsiFile psiFile) {
 
-    StructureViewBuilder builder = ReadAction.compute(fileEditor::getStructureViewBuilder);
+    StructureViewBuilder builder = LanguageStructureViewBuilder.getInstance().getStructureViewBuilder(psiFile);
     if (builder == null) {
       return null;
     }
     StructureViewModel treeModel;
     if (builder instanceof TreeBasedStructureViewBuilder) {
-      treeModel = ((TreeBasedStructureViewBuilder) builder).createStructureViewModel(EditorUtil.getEditorEx(fileEditor));
+      // the tree is built without an editor, so the document doesn't need one
+      treeModel = ((TreeBasedStructureViewBuilder) builder).createStructureViewModel(null);
     } else {
+      // other builders create a structure view bound to a file editor, which only the pooled documents have
+      FileEditor fileEditor = FileEditorManager.getInstance(project).getSelectedEditor(psiFile.getVirtualFile());
+      if (fileEditor == null) {
+        return null;
+      }
       StructureView structureView = builder.createStructureView(fileEditor, project);
       treeModel = createStructureViewModel(project, fileEditor, structureView);
     }
@@ -10,6 +10,8 @@ import com.intellij.openapi.actionSystem.impl.SimpleDataContext;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.StandardProgressIndicator;
 import com.intellij.openapi.progress.util.AbstractProgressIndicatorBase;
 import com.intellij.openapi.project.DumbService;
@@ -20,17 +22,16 @@ import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiNameIdentifierOwner;
 import com.intellij.psi.search.ProjectScope;
 import com.intellij.psi.search.SearchScope;
-import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.containers.ContainerUtil;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.CancelChecker;
-import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.rri.ideals.server.LspPath;
 import org.rri.ideals.server.symbol.util.SymbolUtil;
 import org.rri.ideals.server.util.MiscUtil;
+import org.rri.ideals.server.util.RequestLane;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -39,6 +40,9 @@ import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service(Service.Level.PROJECT)
 final public class WorkspaceSymbolService {
@@ -57,7 +61,7 @@ final public class WorkspaceSymbolService {
 
   @SuppressWarnings("deprecation")
   public @NotNull CompletableFuture<@NotNull Either<List<? extends SymbolInformation>, @Nullable List<? extends WorkspaceSymbol>>> runSearch(String pattern) {
-    return CompletableFutures.computeAsync(AppExecutorUtil.getAppExecutorService(),
+    return RequestLane.BULK.computeAsync("workspace/symbol",
         cancelToken -> {
           if (DumbService.isDumb(project)) {
             return Either.forRight(null);
@@ -85,10 +89,9 @@ final public class WorkspaceSymbolService {
           contributorRef.set(contributor);
         }
     );
-    final var ref = new Ref<List<WorkspaceSearchResult>>();
-    ApplicationManager.getApplication().runReadAction(
-        () -> ref.set(search(contributorRef.get(), pattern.isEmpty() ? "*" : pattern, cancelToken)));
-    return ref.get();
+    return MiscUtil.computeInNonBlockingReadAction(
+        () -> search(contributorRef.get(), pattern.isEmpty() ? "*" : pattern, cancelToken),
+        cancelToken);
   }
 
   private record WorkspaceSearchResult(@NotNull WorkspaceSymbol symbol,
@@ -108,8 +111,9 @@ final public class WorkspaceSymbolService {
     final var elements = new HashSet<PsiElement>();
     final var processedFiles = new HashSet<PsiFile>();
     try {
-      final var indicator = new WorkspaceSymbolIndicator(cancelToken);
-      ApplicationManager.getApplication().executeOnPooledThread(() ->
+      // the fetching thread has to stop as well when the read action is cancelled to let a write action in
+      final var indicator = new WorkspaceSymbolIndicator(cancelToken, ProgressManager.getInstance().getProgressIndicator());
+      final var future = ApplicationManager.getApplication().executeOnPooledThread(() ->
           contributor.fetchWeightedElements(pattern, indicator,
               descriptor -> {
                 if (!(descriptor.getItem() instanceof final PsiElement elem)
@@ -144,13 +148,33 @@ final public class WorkspaceSymbolService {
                   }
                 }
                 return allSymbols.size() < LIMIT;
-              })).get();
-    } catch (InterruptedException | ExecutionException ignored) {
+              }));
+      awaitWithCheckCanceled(future);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    } catch (ExecutionException e) {
+      // a cancelled fetch has to restart the read action (or cancel the request) rather than return partial results
+      if (e.getCause() instanceof ProcessCanceledException cancelled) {
+        throw cancelled;
+      }
+      throw MiscUtil.wrap(e.getCause());
     }
     allSymbols.sort(COMP);
     return allSymbols;
   }
 
+  private static void awaitWithCheckCanceled(@NotNull Future<?> future) throws InterruptedException, ExecutionException {
+    while (true) {
+      ProgressManager.checkCanceled();
+      try {
+        future.get(10, TimeUnit.MILLISECONDS);
+        return;
+      } catch (TimeoutException ignored) {
+      }
+    }
+  }
+
   private static @Nullable WorkspaceSearchResult toSearchResult(@NotNull FoundItemDescriptor<@NotNull Object> descriptor,
                                                                 @NotNull SearchScope scope) {
     if (!(descriptor.getItem() instanceof final PsiElement elem)) {
@@ -191,13 +215,24 @@ final public class WorkspaceSymbolService {
   private static class WorkspaceSymbolIndicator extends AbstractProgressIndicatorBase implements StandardProgressIndicator {
     @Nullable
     private final CancelChecker cancelToken;
+    @Nullable
+    private final ProgressIndicator outerIndicator;
 
-    public WorkspaceSymbolIndicator(@Nullable CancelChecker cancelToken) {
+    public WorkspaceSymbolIndicator(@Nullable CancelChecker cancelToken, @Nullable ProgressIndicator outerIndicator) {
       this.cancelToken = cancelToken;
+      this.outerIndicator = outerIndicator;
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return super.isCanceled() || (outerIndicator != null && outerIndicator.isCanceled());
     }
 
     @Override
     public void checkCanceled() {
+      if (outerIndicator != null && outerIndicator.isCanceled()) {
+        throw new ProcessCanceledException();
+      }
       if (cancelToken != null) {
         try {
           cancelToken.checkCanceled();
@@ -1,27 +1,42 @@
 package org.rri.ideals.server.util;
 
-import com.intellij.openapi.editor.LogicalPosition;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiFile;
-import com.intellij.util.concurrency.AppExecutorUtil;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.jsonrpc.CancelChecker;
-import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.EditorPool;
 import org.rri.ideals.server.LspPath;
 import org.rri.ideals.server.ManagedDocuments;
 import org.rri.ideals.server.commands.ExecutorContext;
 
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 public class AsyncExecutor<R> {
-  private final boolean cancellable;
+  public static final String CANCELLED_COUNTER = "requests.cancelled";
+  public static final String CANCELLED_BEFORE_START_COUNTER = "requests.cancelled.beforeStart";
+  public static final String CANCELLATION_SAVED_MILLIS_COUNTER = "requests.cancelled.savedMillis";
+  public static final String SKIPPED_LARGE_FILE_COUNTER = "requests.skipped.largeFile";
+  private static final String COMPLETED_COUNTER = "requests.completed";
+  private static final String COMPLETED_MILLIS_COUNTER = "requests.completed.millis";
+
   private final boolean runInEDT;
-  private final Executor executor = AppExecutorUtil.getAppExecutorService();
+  private final boolean editorRequired;
+  private final boolean nonBlockingReadAction;
+  private final boolean skippedForLargeFiles;
+  @NotNull
+  private final RequestLane lane;
+  @NotNull
+  private final String method;
   @NotNull
   private final Project project;
   @Nullable
@@ -30,11 +45,15 @@ public class AsyncExecutor<R> {
   private final Position position;
 
   private AsyncExecutor(@NotNull Builder<R> builder) {
-    this.cancellable = builder.cancellable;
     this.project = builder.project;
     this.psiFile = builder.psiFile;
     this.position = builder.position;
     this.runInEDT = builder.runInEDT;
+    this.editorRequired = builder.editorRequired;
+    this.nonBlockingReadAction = builder.nonBlockingReadAction;
+    this.skippedForLargeFiles = builder.skippedForLargeFiles;
+    this.lane = builder.lane;
+    this.method = builder.method;
   }
 
   public static <R> Builder<R> builder() {
@@ -42,58 +61,157 @@ public class AsyncExecutor<R> {
   }
 
   public @NotNull CompletableFuture<@Nullable R> compute(@NotNull Function<ExecutorContext, R> action) {
-    if (cancellable) {
-      return CompletableFutures.computeAsync(executor, cancelToken -> getResult(action, cancelToken));
-    } else {
-      return CompletableFuture.supplyAsync(() -> getResult(action, null), executor);
-    }
+    final var timings = new RequestTimings(method);
+    return lane.computeAsync(cancelToken -> getResult(action, cancelToken, timings));
   }
 
   private @Nullable R getResult(@NotNull Function<ExecutorContext, R> action,
-                                @Nullable CancelChecker cancelToken) {
-    final var editor = MiscUtil.computeInEDTAndWait(() -> {
-      final var textEditor = Optional.ofNullable(psiFile)
-          .map(file -> project.getService(ManagedDocuments.class).getSelectedEditor(file.getVirtualFile()))
-          .orElse(null);
-
-      if (textEditor != null && position != null) {
-        textEditor.getCaretModel().moveToLogicalPosition(new LogicalPosition(position.getLine(), position.getCharacter()));
+                                @NotNull CancelChecker cancelToken,
+                                @NotNull RequestTimings timings) {
+    timings.started();
+    if (cancelToken.isCanceled()) {
+      Metrics.increment(CANCELLED_BEFORE_START_COUNTER);
+      Metrics.add(CANCELLATION_SAVED_MILLIS_COUNTER, averageCompletedMillis(method));
+      timings.finished(RequestTimings.Outcome.CANCELLED);
+      throw new CancellationException();
+    }
+
+    final var start = System.nanoTime();
+    try {
+      final var result = doGetResult(action, cancelToken, timings);
+      Metrics.increment(COMPLETED_COUNTER + "." + method);
+      Metrics.add(COMPLETED_MILLIS_COUNTER + "." + method, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      timings.finished(RequestTimings.Outcome.COMPLETED);
+      return result;
+    } catch (RuntimeException | Error e) {
+      final var outcome = RequestTimings.outcomeOf(e, cancelToken);
+      if (outcome == RequestTimings.Outcome.CANCELLED) {
+        final var spentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Metrics.increment(CANCELLED_COUNTER);
+        Metrics.add(CANCELLATION_SAVED_MILLIS_COUNTER, Math.max(0, averageCompletedMillis(method) - spentMillis));
       }
+      timings.finished(outcome);
+      throw e;
+    }
+  }
 
-      return textEditor;
-    });
+  /**
+   * The estimation of the work saved by a cancellation is based on the average duration of the completed requests
+   * of the same method.
+   */
+  private static long averageCompletedMillis(@NotNull String method) {
+    final var completed = Metrics.getCounter(COMPLETED_COUNTER + "." + method);
+    return completed == 0 ? 0 : Metrics.getCounter(COMPLETED_MILLIS_COUNTER + "." + method) / completed;
+  }
 
-    if (editor == null || psiFile == null) {
+  private @Nullable R doGetResult(@NotNull Function<ExecutorContext, R> action,
+                                  @NotNull CancelChecker cancelToken,
+                                  @NotNull RequestTimings timings) {
+    if (psiFile == null) {
       return null;
     }
 
-    final var context = new ExecutorContext(psiFile, editor, cancelToken);
+    final var virtualFile = psiFile.getVirtualFile();
+    if (virtualFile != null) {
+      final var path = LspPath.fromVirtualFile(virtualFile);
+      final var documents = project.getService(ManagedDocuments.class);
+      if (skippedForLargeFiles && documents.isLargeFile(path)) {
+        Metrics.increment(SKIPPED_LARGE_FILE_COUNTER);
+        return null;
+      }
+      // the changes received before the request have to be applied and committed
+      documents.waitForChanges(path, cancelToken);
+    }
+
+    final var context = editorRequired
+        ? createEditorContext(psiFile, cancelToken, timings)
+        : createContext(psiFile, cancelToken);
+
+    if (context == null) {
+      return null;
+    }
 
+    final R result;
     try {
       if (runInEDT) {
-        return MiscUtil.computeInEDTAndWait(() -> action.apply(context));
+        result = timings.inEdt(() -> runWithProgress(action, context, cancelToken, timings));
+      } else if (nonBlockingReadAction) {
+        result = MiscUtil.computeInNonBlockingReadAction(timings.inReadAction(() -> action.apply(context)), cancelToken);
       } else {
-        return action.apply(context);
+        result = runWithProgress(action, context, cancelToken, timings);
       }
     } finally {
-      if (cancelToken != null) {
-        cancelToken.checkCanceled();
+      if (context.findEditor() != null) {
+        // the editor is kept open until the request is done with it
+        final var file = psiFile.getVirtualFile();
+        ApplicationManager.getApplication().invokeLater(() -> project.getService(EditorPool.class).endLease(file));
       }
     }
+    // checked on the normal return only, so that a cancellation never replaces the exception thrown by the action
+    cancelToken.checkCanceled();
+    return result;
+  }
+
+  // makes ProgressManager.checkCanceled() calls inside IDEA code react to the request cancellation
+  private static <R> R runWithProgress(@NotNull Function<ExecutorContext, R> action,
+                                       @NotNull ExecutorContext context,
+                                       @NotNull CancelChecker cancelToken,
+                                       @NotNull RequestTimings timings) {
+    return ProgressManager.getInstance().runProcess(
+        () -> MiscUtil.makeThrowsUnchecked(() -> timings.compute(() -> action.apply(context))),
+        new LspProgressIndicator(cancelToken));
+  }
+
+  private @Nullable ExecutorContext createEditorContext(@NotNull PsiFile file,
+                                                        @NotNull CancelChecker cancelToken,
+                                                        @NotNull RequestTimings timings) {
+    final var editorPool = project.getService(EditorPool.class);
+    final var virtualFile = file.getVirtualFile();
+    final var leased = new AtomicBoolean();
+    try {
+      final var editor = timings.inEdt(() -> {
+        final var textEditor = editorPool.lease(virtualFile);
+        leased.set(textEditor != null);
+
+        if (textEditor != null && position != null) {
+          textEditor.getCaretModel().moveToOffset(MiscUtil.positionToOffset(textEditor.getDocument(), position));
+        }
+
+        return textEditor;
+      });
+
+      return editor != null ? new ExecutorContext(file, editor, cancelToken) : null;
+    } catch (RuntimeException | Error e) {
+      // the request ends the lease only once it has got the editor
+      if (leased.get()) {
+        ApplicationManager.getApplication().invokeLater(() -> editorPool.endLease(virtualFile));
+      }
+      throw e;
+    }
+  }
+
+  private @NotNull ExecutorContext createContext(@NotNull PsiFile file, @NotNull CancelChecker cancelToken) {
+    final int offset = position == null ? -1 : ReadAction.compute(() ->
+        Optional.ofNullable(MiscUtil.getDocument(file))
+            .map(doc -> MiscUtil.positionToOffset(doc, position))
+            .orElse(-1));
+
+    return new ExecutorContext(file, offset, cancelToken);
   }
 
   public static class Builder<R> {
-    private boolean cancellable = false;
     private boolean runInEDT = false;
+    private boolean editorRequired = false;
+    private boolean nonBlockingReadAction = false;
+    private boolean skippedForLargeFiles = false;
+    @NotNull
+    private RequestLane lane = RequestLane.INTERACTIVE;
+    @NotNull
+    private String method = "unknown";
     private Project project;
     private Position position;
     private PsiFile psiFile;
 
-    public Builder<R> cancellable(boolean cancellable) {
-      this.cancellable = cancellable;
-      return this;
-    }
-
     public Builder<R> executorContext(@NotNull Project project, @NotNull String uri, @Nullable Position position) {
       this.project = project;
       var resolvedFile = MiscUtil.resolvePsiFile(project, LspPath.fromLspUri(uri));
@@ -107,6 +225,48 @@ public class AsyncExecutor<R> {
       return this;
     }
 
+    /**
+     * Whether the action needs an editor with the caret at the request position, false by default.
+     * Without it the context only carries the offset, and no EDT round trip is made to open an editor.
+     */
+    public Builder<R> editorRequired(boolean editorRequired) {
+      this.editorRequired = editorRequired;
+      return this;
+    }
+
+    /**
+     * Whether a background action should be run in a non-blocking read action,
+     * which gives way to write actions and is restarted after them.
+     * Not applicable for actions that invoke something in the EDT and wait for it.
+     */
+    public Builder<R> nonBlockingReadAction(boolean nonBlockingReadAction) {
+      this.nonBlockingReadAction = nonBlockingReadAction;
+      return this;
+    }
+
+    /**
+     * Whether the request returns null right away for a document in large file mode, false by default.
+     * Set for the features which take time growing with the file size or run on every keystroke;
+     * the others commit the PSI of a large file when they need it.
+     */
+    public Builder<R> skipForLargeFiles(boolean skipForLargeFiles) {
+      this.skippedForLargeFiles = skipForLargeFiles;
+      return this;
+    }
+
+    public Builder<R> lane(@NotNull RequestLane lane) {
+      this.lane = lane;
+      return this;
+    }
+
+    /**
+     * The LSP method the latency histograms of the request are recorded for.
+     */
+    public Builder<R> method(@NotNull String method) {
+      this.method = method;
+      return this;
+    }
+
     public AsyncExecutor<R> build() {
       return new AsyncExecutor<>(this);
     }
@@ -5,7 +5,7 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorFactory;
-import com.intellij.openapi.editor.LogicalPosition;
+import com.intellij.openapi.editor.impl.ImaginaryEditor;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
@@ -29,7 +29,7 @@ public class EditorUtil {
 
     assert doc != null;
     Editor created = editorFactory.createEditor(doc, file.getProject());
-    created.getCaretModel().moveToLogicalPosition(new LogicalPosition(position.getLine(), position.getCharacter()));
+    created.getCaretModel().moveToOffset(MiscUtil.positionToOffset(doc, position));
 
     Disposer.register(context, () -> {
       if (!created.isDisposed()) {
@@ -41,6 +41,20 @@ public class EditorUtil {
   }
 
 
+  /**
+   * Creates a view of the file's document with the caret at the offset, for the lookups taking an editor
+   * only to get the file and the caret, e.g. {@link TargetElementUtil}. Unlike a real editor, it can be created
+   * in a background read action and needs no releasing, but it can't display anything.
+   */
+  @NotNull
+  public static Editor createReadOnlyEditor(@NotNull PsiFile file, int offset) {
+    Document doc = MiscUtil.getDocument(file);
+    assert doc != null;
+    Editor created = new ImaginaryEditor(file.getProject(), doc);
+    created.getCaretModel().moveToOffset(offset);
+    return created;
+  }
+
   public static void withEditor(@NotNull Disposable context,
                                 @NotNull PsiFile file,
                                 @NotNull Position position,
@@ -0,0 +1,61 @@
+package org.rri.ideals.server.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor with a limit on the number of tasks that are either running or waiting in the queue.
+ * Tasks exceeding the limit are rejected right away instead of piling up.
+ */
+final public class LaneExecutor implements Executor {
+  @NotNull
+  private final String name;
+  @NotNull
+  private final Executor delegate;
+  private final int capacity;
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * @param delegate executor which runs the tasks, it's responsible for the concurrency limit, if there's one
+   * @param capacity the maximum number of running and queued tasks
+   */
+  public LaneExecutor(@NotNull String name, @NotNull Executor delegate, int capacity) {
+    this.name = name;
+    this.delegate = delegate;
+    this.capacity = capacity;
+  }
+
+  @Override
+  public void execute(@NotNull Runnable command) {
+    if (pending.incrementAndGet() > capacity) {
+      pending.decrementAndGet();
+      Metrics.increment("lane." + name + ".rejected");
+      throw new RejectedExecutionException("Lane '" + name + "' is saturated: " + capacity + " tasks are pending");
+    }
+
+    try {
+      delegate.execute(() -> {
+        try {
+          command.run();
+        } finally {
+          pending.decrementAndGet();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pending.decrementAndGet();
+      throw e;
+    }
+  }
+
+  public int getPendingCount() {
+    return pending.get();
+  }
+
+  @NotNull
+  public String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,234 @@
+package org.rri.ideals.server.util;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.LightVirtualFile;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+/**
+ * Line starts of a text, for converting offsets to LSP positions in any {@link PositionEncoding} and back.
+ * <p>
+ * The index of a document is cached in it until the document is modified, so that converting many locations
+ * (e.g. found usages) costs a binary search per location. Columns in the lines made of ASCII chars only
+ * are the same in every encoding; the other lines are scanned up to the column.
+ * The index of a file without a loaded document is built from its PSI text and cached softly in the file,
+ * so that locations in the files which aren't open don't make IDEA load documents for them.
+ * Lines are separated by {@code \n}, {@code \r\n} or {@code \r}.
+ */
+final public class LineIndex {
+  private static final Key<LineIndex> KEY = Key.create("ideals.lineIndex");
+  private static final Key<SoftReference<LineIndex>> FILE_KEY = Key.create("ideals.fileLineIndex");
+
+  public static final String FILE_INDEX_BUILDS_COUNTER = "lineIndex.files.built";
+  private static final byte UNKNOWN = 0;
+  private static final byte ASCII = 1;
+  private static final byte NON_ASCII = 2;
+
+  private final long modificationStamp;
+  @NotNull
+  private final CharSequence text;
+  private final int[] lineStarts;
+  private final int lineCount;
+  // computed lazily; racy, but every thread computes the same values
+  private final byte[] lineKinds;
+
+  private LineIndex(@NotNull CharSequence text, long modificationStamp) {
+    this.text = text;
+    this.modificationStamp = modificationStamp;
+
+    var starts = new int[Math.max(16, text.length() / 32)];
+    int count = 1;
+    final var length = text.length();
+    for (int i = 0; i < length; i++) {
+      final var c = text.charAt(i);
+      if (c == '\n' || c == '\r') {
+        if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+          i++;
+        }
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = i + 1;
+      }
+    }
+    this.lineStarts = starts;
+    this.lineCount = count;
+    this.lineKinds = new byte[count];
+  }
+
+  /**
+   * @return the index of the current text of the document
+   */
+  @NotNull
+  public static LineIndex of(@NotNull Document doc) {
+    final var stamp = doc.getModificationStamp();
+    final var cached = doc.getUserData(KEY);
+    if (cached != null && cached.modificationStamp == stamp) {
+      return cached;
+    }
+    final var index = new LineIndex(doc.getImmutableCharSequence(), stamp);
+    doc.putUserData(KEY, index);
+    return index;
+  }
+
+  /**
+   * @return the index of the PSI text of the file; a document is never loaded for it
+   */
+  @NotNull
+  public static LineIndex of(@NotNull PsiFile file) {
+    final var virtualFile = file.getViewProvider().getVirtualFile();
+    final var doc = FileDocumentManager.getInstance().getCachedDocument(virtualFile);
+    if (doc != null) {
+      return of(doc);
+    }
+    if (virtualFile instanceof LightVirtualFile) {
+      return of(file.getViewProvider().getContents());
+    }
+
+    final var stamp = virtualFile.getModificationStamp();
+    final var ref = virtualFile.getUserData(FILE_KEY);
+    final var cached = ref != null ? ref.get() : null;
+    if (cached != null && cached.modificationStamp == stamp) {
+      return cached;
+    }
+    final var index = new LineIndex(file.getViewProvider().getContents(), stamp);
+    virtualFile.putUserData(FILE_KEY, new SoftReference<>(index));
+    Metrics.increment(FILE_INDEX_BUILDS_COUNTER);
+    return index;
+  }
+
+  /**
+   * @return a new index of the text, which isn't cached anywhere
+   */
+  @NotNull
+  public static LineIndex of(@NotNull CharSequence text) {
+    return new LineIndex(text, -1);
+  }
+
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  public int getLineNumber(int offset) {
+    final var index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  public int getLineStartOffset(int line) {
+    return lineStarts[line];
+  }
+
+  public int getLineEndOffset(int line) {
+    if (line + 1 >= lineCount) {
+      return text.length();
+    }
+    final var separator = lineStarts[line + 1] - 1;
+    return text.charAt(separator) == '\n' && separator > lineStarts[line] && text.charAt(separator - 1) == '\r'
+        ? separator - 1
+        : separator;
+  }
+
+  @NotNull
+  public Position toPosition(int offset, @NotNull PositionEncoding encoding) {
+    final var line = getLineNumber(offset);
+    return new Position(line, column(line, offset, encoding));
+  }
+
+  /**
+   * The end is looked up on the line of the start first, since most ranges are within a line.
+   */
+  @NotNull
+  public Range toRange(int startOffset, int endOffset, @NotNull PositionEncoding encoding) {
+    final var startLine = getLineNumber(startOffset);
+    final var endLine = startLine + 1 >= lineCount || endOffset < lineStarts[startLine + 1]
+        ? startLine
+        : getLineNumber(endOffset);
+    return new Range(
+        new Position(startLine, column(startLine, startOffset, encoding)),
+        new Position(endLine, column(endLine, endOffset, encoding)));
+  }
+
+  /**
+   * A position beyond the end of its line is moved to the end of the line, one beyond the last line is moved
+   * to the end of the text.
+   */
+  public int toOffset(int line, int column, @NotNull PositionEncoding encoding) {
+    if (line >= lineCount) {
+      return text.length();
+    }
+    final var start = lineStarts[line];
+    final var end = getLineEndOffset(line);
+    if (encoding == PositionEncoding.UTF16 || isAscii(line)) {
+      return Math.min(start + column, end);
+    }
+    final var offset = offsetInLine(text, start, end, column, encoding);
+    return offset >= 0 ? offset : end;
+  }
+
+  /**
+   * Converts a position of a document without building an index, for the documents being changed.
+   * A position beyond the end of its line is moved to the end of the line, as the LSP specification requires.
+   *
+   * @return the offset, or -1 if the line is beyond the end of the document
+   */
+  public static int toOffset(@NotNull Document doc, int line, int column, @NotNull PositionEncoding encoding) {
+    // an empty document has no lines, but its first line may still be changed
+    if (line < 0 || line >= Math.max(1, doc.getLineCount())) {
+      return -1;
+    }
+    final var end = doc.getLineEndOffset(line);
+    final var offset = offsetInLine(doc.getImmutableCharSequence(), doc.getLineStartOffset(line), end, column, encoding);
+    return offset >= 0 ? offset : end;
+  }
+
+  private static int offsetInLine(@NotNull CharSequence text, int lineStart, int lineEnd, int column,
+                                  @NotNull PositionEncoding encoding) {
+    if (encoding == PositionEncoding.UTF16) {
+      return column <= lineEnd - lineStart ? lineStart + column : -1;
+    }
+    int units = 0;
+    int i = lineStart;
+    while (units < column) {
+      if (i >= lineEnd) {
+        return -1;
+      }
+      units += encoding.codeUnits(text, i, lineEnd);
+      i += encoding.chars(text, i, lineEnd);
+    }
+    return i;
+  }
+
+  private int column(int line, int offset, @NotNull PositionEncoding encoding) {
+    final var start = lineStarts[line];
+    if (encoding == PositionEncoding.UTF16 || isAscii(line)) {
+      return offset - start;
+    }
+    int units = 0;
+    for (int i = start; i < offset; i += encoding.chars(text, i, offset)) {
+      units += encoding.codeUnits(text, i, offset);
+    }
+    return units;
+  }
+
+  private boolean isAscii(int line) {
+    var kind = lineKinds[line];
+    if (kind == UNKNOWN) {
+      kind = ASCII;
+      for (int i = lineStarts[line], end = getLineEndOffset(line); i < end; i++) {
+        if (text.charAt(i) >= 0x80) {
+          kind = NON_ASCII;
+          break;
+        }
+      }
+      lineKinds[line] = kind;
+    }
+    return kind == ASCII;
+  }
+}
@@ -1,13 +1,31 @@
 package org.rri.ideals.server.util;
 
+import com.google.gson.GsonBuilder;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 public class Metrics {
   private static final Logger LOG = Logger.getInstance(Metrics.class);
 
+  private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private static final Map<String, ValueHistogram> valueHistograms = new ConcurrentHashMap<>();
+
+  public record Snapshot(@NotNull Map<String, Long> counters,
+                         @NotNull Map<String, LatencyHistogram.Snapshot> histograms,
+                         @NotNull Map<String, ValueHistogram.Snapshot> values) {
+  }
+
   public static void run(@NotNull Supplier<@NotNull String> blockNameSupplier, @NotNull Runnable block) {
     call(blockNameSupplier, (Supplier<Void>) () -> {
       block.run();
@@ -15,6 +33,18 @@ public class Metrics {
     });
   }
 
+  /**
+   * Same as {@link #run(Supplier, Runnable)}, but the duration is also recorded in the {@code <method>.total} histogram.
+   */
+  public static void run(@NotNull String method, @NotNull Supplier<@NotNull String> blockNameSupplier, @NotNull Runnable block) {
+    final var start = System.nanoTime();
+    try {
+      run(blockNameSupplier, block);
+    } finally {
+      recordLatency(method + RequestTimings.TOTAL_SUFFIX, System.nanoTime() - start);
+    }
+  }
+
   public static <T> T call(@NotNull Supplier<@NotNull String> blockNameSupplier, @NotNull Supplier<T> block) {
     if (!LOG.isDebugEnabled()) {
       return block.get();
@@ -37,4 +67,58 @@ public class Metrics {
       LOG.debug(prefix + ((end - start) / 1_000_000) + " ms", thrown);
     }
   }
+
+  public static void increment(@NotNull String counterName) {
+    add(counterName, 1);
+  }
+
+  public static void add(@NotNull String counterName, long delta) {
+    counters.computeIfAbsent(counterName, name -> new LongAdder()).add(delta);
+  }
+
+  public static long getCounter(@NotNull String counterName) {
+    final var counter = counters.get(counterName);
+    return counter != null ? counter.sum() : 0;
+  }
+
+  public static void recordLatency(@NotNull String histogramName, long durationNanos) {
+    histograms.computeIfAbsent(histogramName, name -> new LatencyHistogram()).record(durationNanos);
+  }
+
+  /**
+   * Records a value which isn't a duration (e.g. a size); such histograms are reported apart from the latencies.
+   */
+  public static void recordValue(@NotNull String histogramName, long value) {
+    valueHistograms.computeIfAbsent(histogramName, name -> new ValueHistogram()).record(value);
+  }
+
+  @Nullable
+  public static LatencyHistogram getHistogram(@NotNull String histogramName) {
+    return histograms.get(histogramName);
+  }
+
+  @Nullable
+  public static ValueHistogram getValueHistogram(@NotNull String histogramName) {
+    return valueHistograms.get(histogramName);
+  }
+
+  @NotNull
+  public static Snapshot snapshot() {
+    final var counterValues = new TreeMap<String, Long>();
+    counters.forEach((name, counter) -> counterValues.put(name, counter.sum()));
+    final var histogramValues = new TreeMap<String, LatencyHistogram.Snapshot>();
+    histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+    final var valueHistogramValues = new TreeMap<String, ValueHistogram.Snapshot>();
+    valueHistograms.forEach((name, histogram) -> valueHistogramValues.put(name, histogram.snapshot()));
+    return new Snapshot(counterValues, histogramValues, valueHistogramValues);
+  }
+
+  public static void dumpTo(@NotNull Path file) {
+    try {
+      Files.writeString(file, new GsonBuilder().setPrettyPrinting().create().toJson(snapshot()));
+      LOG.info("Metrics are written to " + file);
+    } catch (IOException e) {
+      LOG.warn("Can't write metrics to " + file, e);
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package org.rri.ideals.server.util;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.impl.DocumentImpl;
@@ -15,18 +16,23 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.PsiNameIdentifierOwner;
+import com.intellij.testFramework.LightVirtualFile;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.LocationLink;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.rri.ideals.server.LspContext;
 import org.rri.ideals.server.LspPath;
+import org.rri.ideals.server.UnmanagedDocuments;
 
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -37,6 +43,8 @@ import java.util.stream.Stream;
 public class MiscUtil {
   private static final Logger LOG = Logger.getInstance(MiscUtil.class);
 
+  public static final String READ_ACTION_RESTARTS_COUNTER = "readAction.restarts";
+
   private MiscUtil() {
   }
 
@@ -51,10 +59,7 @@ public class MiscUtil {
     if (offset == -1) {
       return new Position(0, 0);
     }
-    var line = doc.getLineNumber(offset);
-    var lineStartOffset = doc.getLineStartOffset(line);
-    var column = offset - lineStartOffset;
-    return new Position(line, column);
+    return LineIndex.of(doc).toPosition(offset, LspContext.getPositionEncoding(doc));
   }
 
   @Nullable
@@ -106,6 +111,31 @@ public class MiscUtil {
     return ref.get();
   }
 
+  /**
+   * Computes the result in a read action which doesn't block write actions: when one is pending,
+   * the computation is cancelled and restarted after the write action is finished.
+   * <p>
+   * Falls back to an ordinary read action when called from the EDT or inside a read action already,
+   * since a non-blocking one can't be started there.
+   */
+  public static <T> T computeInNonBlockingReadAction(@NotNull Callable<T> computation,
+                                                     @Nullable CancelChecker cancelChecker) {
+    final var application = ApplicationManager.getApplication();
+    if (application.isDispatchThread() || application.isReadAccessAllowed()) {
+      return ReadAction.compute(() -> makeThrowsUnchecked(computation));
+    }
+
+    final var attempts = new AtomicInteger();
+    return ReadAction.nonBlocking(() -> {
+          if (attempts.getAndIncrement() > 0) {
+            Metrics.increment(READ_ACTION_RESTARTS_COUNTER);
+          }
+          return computation.call();
+        })
+        .wrapProgress(new LspProgressIndicator(cancelChecker != null ? cancelChecker : () -> {}))
+        .executeSynchronously();
+  }
+
   @Nullable
   public static Document getDocument(@NotNull PsiFile file) {
     var virtualFile = file.getVirtualFile();
@@ -113,7 +143,12 @@ public class MiscUtil {
     if (virtualFile == null)
       return file.getViewProvider().getDocument();
 
-    var doc = FileDocumentManager.getInstance().getDocument(virtualFile);
+    var doc = FileDocumentManager.getInstance().getCachedDocument(virtualFile);
+    if (doc != null) {
+      return doc;
+    }
+
+    doc = FileDocumentManager.getInstance().getDocument(virtualFile);
 
     if (doc == null) {
       FileDocumentManagerImpl.registerDocument(
@@ -123,6 +158,10 @@ public class MiscUtil {
           .getDocument(virtualFile);
     }
 
+    // only the loaded documents are tracked, so that getting a loaded one stays cheap
+    if (doc != null && !(virtualFile instanceof LightVirtualFile)) {
+      file.getProject().getService(UnmanagedDocuments.class).touch(virtualFile, doc);
+    }
     return doc;
   }
 
@@ -159,12 +198,13 @@ public class MiscUtil {
   }
 
   @Nullable
-  public static LocationLink psiElementToLocationLink(@NotNull PsiElement targetElem, @Nullable Document doc, @Nullable Range originalRange) {
-    if (doc == null) {
+  public static LocationLink psiElementToLocationLink(@NotNull PsiElement targetElem, @Nullable Range originalRange) {
+    final var file = targetElem.getContainingFile();
+    if (file == null || file.getVirtualFile() == null) {
       return null;
     }
-    Range range = getPsiElementRange(doc, targetElem);
-    String uri = LspPath.fromVirtualFile(targetElem.getContainingFile().getVirtualFile()).toLspUri();
+    Range range = getPsiElementRange(file, targetElem);
+    String uri = LspPath.fromVirtualFile(file.getVirtualFile()).toLspUri();
     return range != null ? new LocationLink(uri, range, range, originalRange) : null;
   }
 
@@ -177,19 +217,33 @@ public class MiscUtil {
     return psiElementToLocation(elem, file);
   }
 
+  /**
+   * Doesn't load the document of the file, see {@link LineIndex#of(PsiFile)}.
+   */
   @Nullable
   public static Location psiElementToLocation(@Nullable PsiElement elem, @NotNull PsiFile file) {
-    var doc = getDocument(file);
-    if (doc == null) {
+    if (file.getVirtualFile() == null) {
       return null;
     }
     var uri = LspPath.fromVirtualFile(file.getVirtualFile()).toLspUri();
-    Range range = getPsiElementRange(doc, elem);
+    Range range = getPsiElementRange(file, elem);
     return range != null ? new Location(uri, range) : null;
   }
 
   @Nullable
   public static Range getPsiElementRange(@NotNull Document doc, @Nullable PsiElement elem) {
+    final var range = getIdentifyingRange(elem);
+    return range != null ? getRange(doc, range) : null;
+  }
+
+  @Nullable
+  public static Range getPsiElementRange(@NotNull PsiFile file, @Nullable PsiElement elem) {
+    final var range = getIdentifyingRange(elem);
+    return range != null ? getRange(file, range) : null;
+  }
+
+  @Nullable
+  private static TextRange getIdentifyingRange(@Nullable PsiElement elem) {
     TextRange range = null;
     if (elem == null) {
       return null;
@@ -203,16 +257,30 @@ public class MiscUtil {
     if (range == null) {
       range = elem.getTextRange();
     }
-    return range != null ? getRange(doc, range) : null;
+    return range;
   }
 
   @NotNull
   public static Range getRange(@NotNull Document doc, @NotNull Segment segment) {
-    return new Range(offsetToPosition(doc, segment.getStartOffset()), offsetToPosition(doc, segment.getEndOffset()));
+    return LineIndex.of(doc).toRange(segment.getStartOffset(), segment.getEndOffset(), LspContext.getPositionEncoding(doc));
+  }
+
+  /**
+   * Converts the segment of the file's PSI text without loading the document of the file.
+   */
+  @NotNull
+  public static Range getRange(@NotNull PsiFile file, @NotNull Segment segment) {
+    return LineIndex.of(file).toRange(segment.getStartOffset(), segment.getEndOffset(),
+        LspContext.getPositionEncoding(file.getProject()));
+  }
+
+  @NotNull
+  public static Position offsetToPosition(@NotNull PsiFile file, int offset) {
+    return LineIndex.of(file).toPosition(offset, LspContext.getPositionEncoding(file.getProject()));
   }
 
   public static int positionToOffset(@NotNull Document doc, @NotNull Position pos) {
-    return doc.getLineStartOffset(pos.getLine()) + pos.getCharacter();
+    return LineIndex.of(doc).toOffset(pos.getLine(), pos.getCharacter(), LspContext.getPositionEncoding(doc));
   }
 
   @NotNull
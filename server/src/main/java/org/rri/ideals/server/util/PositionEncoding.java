@@ -0,0 +1,81 @@
+package org.rri.ideals.server.util;
+
+import org.eclipse.lsp4j.PositionEncodingKind;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The unit of the character offsets in LSP positions, negotiated with the client at initialization.
+ * IDEA documents are UTF-16, so {@link #UTF16} needs no conversion.
+ */
+public enum PositionEncoding {
+  UTF8(PositionEncodingKind.UTF8),
+  UTF16(PositionEncodingKind.UTF16),
+  UTF32(PositionEncodingKind.UTF32);
+
+  @NotNull
+  private final String kind;
+
+  PositionEncoding(@NotNull String kind) {
+    this.kind = kind;
+  }
+
+  @NotNull
+  public String getKind() {
+    return kind;
+  }
+
+  /**
+   * @param clientEncodings the encodings supported by the client, in the order of its preference
+   * @return the first of them supported by the server, or UTF-16, which every client must support
+   */
+  @NotNull
+  public static PositionEncoding negotiate(@Nullable List<String> clientEncodings) {
+    if (clientEncodings != null) {
+      for (var clientEncoding : clientEncodings) {
+        for (var encoding : values()) {
+          if (encoding.kind.equalsIgnoreCase(clientEncoding)) {
+            return encoding;
+          }
+        }
+      }
+    }
+    return UTF16;
+  }
+
+  /**
+   * The number of code units the code point starting with the char at the index takes.
+   * A surrogate pair counts as one code point.
+   */
+  int codeUnits(@NotNull CharSequence text, int index, int end) {
+    final var c = text.charAt(index);
+    return switch (this) {
+      case UTF16 -> 1;
+      case UTF32 -> 1;
+      case UTF8 -> {
+        if (c < 0x80) {
+          yield 1;
+        } else if (c < 0x800) {
+          yield 2;
+        } else if (Character.isHighSurrogate(c) && index + 1 < end && Character.isLowSurrogate(text.charAt(index + 1))) {
+          yield 4;
+        } else {
+          yield 3;
+        }
+      }
+    };
+  }
+
+  /**
+   * The number of UTF-16 chars the code point starting with the char at the index takes.
+   */
+  int chars(@NotNull CharSequence text, int index, int end) {
+    if (this == UTF16) {
+      return 1;
+    }
+    return Character.isHighSurrogate(text.charAt(index)) && index + 1 < end && Character.isLowSurrogate(text.charAt(index + 1))
+        ? 2 : 1;
+  }
+}
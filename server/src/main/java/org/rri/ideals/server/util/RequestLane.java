@@ -0,0 +1,134 @@
+package org.rri.ideals.server.util;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Request handlers are executed in one of the lanes, each with its own concurrency limit and queue depth
+ * (see {@code ideals.lane.*} registry keys). Heavy requests therefore can't delay interactive ones.
+ * With virtual threads, the lanes are bounded by the sum of the two only (see {@link #createExecutor}).
+ * <p>
+ * A saturated lane rejects new requests with the {@code ServerCancelled} error, so the client can retry later.
+ */
+public enum RequestLane {
+  /**
+   * Requests a user is waiting for while typing: completion, signature help, highlighting, etc.
+   */
+  INTERACTIVE("interactive", 4, 64),
+  /**
+   * Project-wide requests: references, rename, workspace symbols, whole file formatting.
+   */
+  BULK("bulk", 2, 8);
+
+  /**
+   * LSP 3.17 {@code ServerCancelled} error code.
+   */
+  public static final int SERVER_CANCELLED = -32802;
+
+  @NotNull
+  private final String id;
+  private final int defaultConcurrency;
+  private final int defaultQueueDepth;
+  private volatile LaneExecutor executor;
+
+  RequestLane(@NotNull String id, int defaultConcurrency, int defaultQueueDepth) {
+    this.id = id;
+    this.defaultConcurrency = defaultConcurrency;
+    this.defaultQueueDepth = defaultQueueDepth;
+  }
+
+  @NotNull
+  public LaneExecutor getExecutor() {
+    var result = executor;
+    if (result == null) {
+      synchronized (this) {
+        result = executor;
+        if (result == null) {
+          executor = result = createExecutor();
+        }
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  public <R> CompletableFuture<R> computeAsync(@NotNull Function<CancelChecker, R> code) {
+    try {
+      return CompletableFutures.computeAsync(getExecutor(), code);
+    } catch (RejectedExecutionException e) {
+      return rejected(e);
+    }
+  }
+
+  /**
+   * Same as {@link #computeAsync(Function)}, with the queue and compute time recorded in the latency histograms of the method.
+   */
+  @NotNull
+  public <R> CompletableFuture<R> computeAsync(@NotNull String method, @NotNull Function<CancelChecker, R> code) {
+    final var timings = new RequestTimings(method);
+    return computeAsync(cancelToken -> {
+      timings.started();
+      try {
+        final var result = MiscUtil.makeThrowsUnchecked(() -> timings.compute(() -> code.apply(cancelToken)));
+        timings.finished(RequestTimings.Outcome.COMPLETED);
+        return result;
+      } catch (RuntimeException | Error e) {
+        timings.finished(RequestTimings.outcomeOf(e, cancelToken));
+        throw e;
+      }
+    });
+  }
+
+  @NotNull
+  private LaneExecutor createExecutor() {
+    final var concurrency = Math.max(1, Registry.intValue("ideals.lane." + id + ".concurrency", defaultConcurrency));
+    final var queueDepth = Math.max(0, Registry.intValue("ideals.lane." + id + ".queueDepth", defaultQueueDepth));
+    final ExecutorService virtualThreads;
+    if (VirtualThreads.isEnabled()) {
+      virtualThreads = VirtualThreads.newExecutor("IdeaLS " + id + " requests");
+      Disposer.register(ApplicationManager.getApplication(), virtualThreads::shutdownNow);
+    } else {
+      virtualThreads = null;
+    }
+    return createExecutor(id, concurrency, queueDepth, virtualThreads);
+  }
+
+  /**
+   * Creates the executor of a lane.
+   * <p>
+   * On platform threads, at most {@code concurrency} tasks run at once and up to {@code queueDepth} ones wait.
+   * A virtual thread doesn't hold a platform one while it's blocked, so on virtual threads all the admitted tasks,
+   * {@code concurrency + queueDepth} of them, run at once.
+   *
+   * @param virtualThreads executor running each task in a virtual thread of its own, or null to use the application pool
+   */
+  @NotNull
+  public static LaneExecutor createExecutor(@NotNull String id,
+                                            int concurrency,
+                                            int queueDepth,
+                                            @Nullable ExecutorService virtualThreads) {
+    final var backend = virtualThreads != null
+        ? virtualThreads
+        : AppExecutorUtil.createBoundedApplicationPoolExecutor("IdeaLS " + id + " requests", concurrency);
+    return new LaneExecutor(id, backend, concurrency + queueDepth);
+  }
+
+  @NotNull
+  private static <R> CompletableFuture<R> rejected(@NotNull RejectedExecutionException e) {
+    return CompletableFuture.failedFuture(
+        new ResponseErrorException(new ResponseError(SERVER_CANCELLED, e.getMessage(), null)));
+  }
+}
@@ -0,0 +1,107 @@
+package org.rri.ideals.server.util;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * Where the time of a single request goes. Recorded in the {@link Metrics} histograms named
+ * {@code <method>.queue} (waiting for a lane thread), {@code <method>.edt} (waiting for the EDT),
+ * {@code <method>.readLock} (waiting for a read action, including the restarted attempts),
+ * {@code <method>.compute} (the action itself) and {@code <method>.total}.
+ * The requests are recorded whatever their outcome; the total time of the cancelled and failed ones is also recorded
+ * in {@code <method>.total.cancelled} and {@code <method>.total.failed}.
+ * <p>
+ * The phases are sequential, so an instance is only touched by one thread at a time.
+ */
+final class RequestTimings {
+  static final String QUEUE_SUFFIX = ".queue";
+  static final String EDT_SUFFIX = ".edt";
+  static final String READ_LOCK_SUFFIX = ".readLock";
+  static final String COMPUTE_SUFFIX = ".compute";
+  static final String TOTAL_SUFFIX = ".total";
+  static final String CANCELLED_SUFFIX = ".cancelled";
+  static final String FAILED_SUFFIX = ".failed";
+
+  enum Outcome {
+    COMPLETED, CANCELLED, FAILED
+  }
+
+  @NotNull
+  private final String method;
+  private final long submittedAt = System.nanoTime();
+  private long queueNanos;
+  private long edtNanos;
+  private long readLockNanos;
+  private long computeNanos;
+
+  RequestTimings(@NotNull String method) {
+    this.method = method;
+  }
+
+  void started() {
+    queueNanos = System.nanoTime() - submittedAt;
+  }
+
+  <T> T inEdt(@NotNull Supplier<T> block) {
+    final var requestedAt = System.nanoTime();
+    return MiscUtil.computeInEDTAndWait(() -> {
+      edtNanos += System.nanoTime() - requestedAt;
+      return block.get();
+    });
+  }
+
+  /**
+   * Wraps a computation passed to a read action; only the last (successful) attempt counts as computation,
+   * the time before it is spent waiting for the lock.
+   */
+  <T> Callable<T> inReadAction(@NotNull Callable<T> block) {
+    final var requestedAt = System.nanoTime();
+    return () -> {
+      readLockNanos = System.nanoTime() - requestedAt;
+      return compute(block);
+    };
+  }
+
+  <T> T compute(@NotNull Callable<T> block) throws Exception {
+    final var start = System.nanoTime();
+    try {
+      return block.call();
+    } finally {
+      computeNanos = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Has to be called for every request, including the cancelled and failed ones: they are often the slowest,
+   * and the percentiles would be biased low without them.
+   */
+  void finished(@NotNull Outcome outcome) {
+    final var totalNanos = System.nanoTime() - submittedAt;
+    Metrics.recordLatency(method + QUEUE_SUFFIX, queueNanos);
+    Metrics.recordLatency(method + EDT_SUFFIX, edtNanos);
+    Metrics.recordLatency(method + READ_LOCK_SUFFIX, readLockNanos);
+    Metrics.recordLatency(method + COMPUTE_SUFFIX, computeNanos);
+    Metrics.recordLatency(method + TOTAL_SUFFIX, totalNanos);
+    switch (outcome) {
+      case CANCELLED -> Metrics.recordLatency(method + TOTAL_SUFFIX + CANCELLED_SUFFIX, totalNanos);
+      case FAILED -> Metrics.recordLatency(method + TOTAL_SUFFIX + FAILED_SUFFIX, totalNanos);
+      case COMPLETED -> {
+      }
+    }
+  }
+
+  /**
+   * @return the outcome of a request which has thrown the exception
+   */
+  @NotNull
+  static Outcome outcomeOf(@NotNull Throwable e, @NotNull CancelChecker cancelToken) {
+    return e instanceof CancellationException || e instanceof ProcessCanceledException || cancelToken.isCanceled()
+        ? Outcome.CANCELLED
+        : Outcome.FAILED;
+  }
+}
@@ -3,9 +3,13 @@ package org.rri.ideals.server.util;
 import com.intellij.diff.comparison.ComparisonManager;
 import com.intellij.diff.comparison.ComparisonPolicy;
 import com.intellij.diff.fragments.DiffFragment;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
 import com.intellij.openapi.progress.DumbProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
@@ -43,6 +47,27 @@ public class TextUtil {
     return textEditFromDocs(oldDoc, newDoc);
   }
 
+  /**
+   * Same as {@link #differenceAfterAction}, but only the action is run in the EDT. The copy is made and compared
+   * with the text of the file at that moment in the calling thread, which mustn't hold a read action.
+   */
+  @NotNull
+  public static List<@NotNull TextEdit> differenceAfterActionInEdt(@NotNull PsiFile psiFile,
+                                                                   @NotNull Consumer<@NotNull PsiFile> action) {
+    var oldDocRef = new Ref<Document>();
+    var copy = ReadAction.compute(() -> {
+      var doc = MiscUtil.getDocument(psiFile);
+      assert doc != null;
+      oldDocRef.set(new DocumentImpl(doc.getImmutableCharSequence()));
+      return getCopyByFileText(psiFile);
+    });
+    ApplicationManager.getApplication().invokeAndWait(() -> action.accept(copy));
+
+    var newDoc = ReadAction.compute(() -> MiscUtil.getDocument(copy));
+    assert newDoc != null;
+    return textEditFromDocs(oldDocRef.get(), newDoc);
+  }
+
   @NotNull
   private static List<@NotNull DiffFragment> diff(@NotNull String oldText, @NotNull String newText) {
     var indicator = ProgressManager.getInstance().getProgressIndicator();
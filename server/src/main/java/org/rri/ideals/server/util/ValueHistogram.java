@@ -0,0 +1,92 @@
+package org.rri.ideals.server.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values in any unit (e.g. sizes) with log-linear buckets:
+ * every power of two is split into {@value #SUB_BUCKETS} buckets, so a percentile is off by at most 12.5%.
+ * Recording is a couple of atomic increments, cheap enough to be done for every request.
+ */
+final public class ValueHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values below 2 * SUB_BUCKETS have a bucket of their own
+  private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+  private static final int BUCKET_COUNT = LINEAR_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public record Snapshot(long count, long mean, long p50, long p90, long p95, long p99, long max) {
+  }
+
+  public void record(long value) {
+    final var clamped = Math.max(0, value);
+    buckets.incrementAndGet(bucketIndex(clamped));
+    count.increment();
+    sum.add(clamped);
+    max.accumulate(clamped);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * @param quantile a value in the range [0, 1]
+   * @return the upper bound of the bucket the quantile falls into, or 0 if nothing was recorded
+   */
+  public long getPercentile(double quantile) {
+    final var total = getCount();
+    if (total == 0) {
+      return 0;
+    }
+    final var rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @NotNull
+  public Snapshot snapshot() {
+    final var total = getCount();
+    return new Snapshot(
+        total,
+        total == 0 ? 0 : sum.sum() / total,
+        getPercentile(0.5),
+        getPercentile(0.9),
+        getPercentile(0.95),
+        getPercentile(0.99),
+        max.get());
+  }
+
+  static int bucketIndex(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    final var exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    final var subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+    final var exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+    final var subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    final var width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (subBucket + 1) * width - 1;
+  }
+}
@@ -0,0 +1,27 @@
+package org.rri.ideals.server.util;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in execution of request handlers on virtual threads (the {@code ideals.virtualThreads} registry key).
+ * <p>
+ * Handlers spend most of their time parked in {@code invokeAndWait} or waiting for futures,
+ * and a parked virtual thread doesn't hold a platform one.
+ */
+public class VirtualThreads {
+  private VirtualThreads() {
+  }
+
+  public static boolean isEnabled() {
+    return Registry.is("ideals.virtualThreads", false);
+  }
+
+  @NotNull
+  public static ExecutorService newExecutor(@NotNull String name) {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+  }
+}
@@ -0,0 +1,75 @@
+package org.rri.ideals.server;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rri.ideals.server.util.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class FileChangesRefresherTest extends LspLightBasePlatformTestCase {
+  @Test
+  public void nearestKnownFilesAreRefreshed() throws IOException {
+    final var root = createKnownDirectory();
+    final var existing = Files.writeString(root.resolve("Existing.java"), "class Existing {}");
+    final var knownExisting = LocalFileSystem.getInstance().refreshAndFindFileByNioFile(existing);
+    assertNotNull(knownExisting);
+    final var created = Files.createDirectories(root.resolve("a/b")).resolve("Created.java");
+    Files.writeString(created, "class Created {}");
+
+    final var files = FileChangesRefresher.findFilesToRefresh(Set.of(
+        LspPath.fromLocalPath(existing),
+        LspPath.fromLocalPath(created)));
+
+    // the created file isn't known, neither are its parents up to the root
+    assertEquals(Set.of(knownExisting, LocalFileSystem.getInstance().findFileByNioFile(root)), files);
+  }
+
+  @Test
+  public void changesAreRefreshedInOneBatch() throws IOException {
+    Registry.get("ideals.files.refreshDelayMs").setValue("500", getTestRootDisposable());
+    final var root = createKnownDirectory();
+    final var first = Files.writeString(root.resolve("First.java"), "class First {}");
+    final var second = Files.writeString(root.resolve("Second.java"), "class Second {}");
+    final var refresher = getProject().getService(FileChangesRefresher.class);
+    final var batchesBefore = Metrics.getCounter(FileChangesRefresher.BATCHES_COUNTER);
+    final var batchSizesHistogram = Metrics.getValueHistogram(FileChangesRefresher.BATCH_SIZE_HISTOGRAM);
+    final var batchSizesBefore = batchSizesHistogram != null ? batchSizesHistogram.getCount() : 0;
+
+    refresher.enqueuePaths(List.of(LspPath.fromLocalPath(first)));
+    refresher.enqueuePaths(List.of(LspPath.fromLocalPath(second)));
+    assertEquals(batchesBefore, Metrics.getCounter(FileChangesRefresher.BATCHES_COUNTER));
+
+    PlatformTestUtil.waitWithEventsDispatching("The created files aren't refreshed",
+        () -> LocalFileSystem.getInstance().findFileByNioFile(first) != null
+            && LocalFileSystem.getInstance().findFileByNioFile(second) != null,
+        10);
+    assertEquals(batchesBefore + 1, Metrics.getCounter(FileChangesRefresher.BATCHES_COUNTER));
+
+    // both paths are in the batch, reported as a plain size rather than a duration
+    final var batchSizes = Metrics.snapshot().values().get(FileChangesRefresher.BATCH_SIZE_HISTOGRAM);
+    assertNotNull(batchSizes);
+    assertEquals(batchSizesBefore + 1, batchSizes.count());
+    // the histogram is shared with the other tests, which may have refreshed larger batches
+    assertTrue(batchSizes.max() >= 2);
+    assertNull(Metrics.getHistogram(FileChangesRefresher.BATCH_SIZE_HISTOGRAM));
+  }
+
+  private static Path createKnownDirectory() throws IOException {
+    final var root = FileUtil.createTempDirectory("refresher", null).toPath();
+    final var knownRoot = LocalFileSystem.getInstance().refreshAndFindFileByNioFile(root);
+    assertNotNull(knownRoot);
+    // with the children loaded, the files created afterwards aren't found until the directory is refreshed
+    knownRoot.getChildren();
+    return root;
+  }
+}
@@ -0,0 +1,87 @@
+package org.rri.ideals.server;
+
+import org.junit.Test;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestCoalescerTest {
+  private static final LspPath PATH = LspPath.fromLspUri("file:///e:/project/Test.java");
+  private static final String METHOD = "textDocument/documentSymbol";
+
+  @Test
+  public void identicalRequestsShareComputation() {
+    final var coalescer = new RequestCoalescer();
+    final var computation = new CompletableFuture<String>();
+    final var started = new AtomicInteger();
+    final var hitsBefore = Metrics.getCounter(RequestCoalescer.HITS_COUNTER);
+
+    final var first = coalescer.coalesce(METHOD, PATH, 1, "params", () -> {
+      started.incrementAndGet();
+      return computation;
+    });
+    final var second = coalescer.coalesce(METHOD, PATH, 1, "params", () -> {
+      started.incrementAndGet();
+      return new CompletableFuture<String>();
+    });
+    computation.complete("symbols");
+
+    assertEquals(1, started.get());
+    assertEquals("symbols", first.join());
+    assertEquals("symbols", second.join());
+    assertEquals(hitsBefore + 1, Metrics.getCounter(RequestCoalescer.HITS_COUNTER));
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void differentStampsOrParamsAreComputedSeparately() {
+    final var coalescer = new RequestCoalescer();
+    final var started = new AtomicInteger();
+
+    coalescer.coalesce(METHOD, PATH, 1, "params", () -> startNew(started));
+    coalescer.coalesce(METHOD, PATH, 2, "params", () -> startNew(started));
+    coalescer.coalesce(METHOD, PATH, 2, "other params", () -> startNew(started));
+
+    assertEquals(3, started.get());
+    assertEquals(3, coalescer.getInFlightCount());
+  }
+
+  @Test
+  public void completedComputationIsNotReused() {
+    final var coalescer = new RequestCoalescer();
+    final var started = new AtomicInteger();
+
+    coalescer.coalesce(METHOD, PATH, 1, "params", () -> {
+      started.incrementAndGet();
+      return CompletableFuture.completedFuture("symbols");
+    });
+    coalescer.coalesce(METHOD, PATH, 1, "params", () -> startNew(started));
+
+    assertEquals(2, started.get());
+  }
+
+  @Test
+  public void computationIsCancelledWhenAllCallersCancel() {
+    final var coalescer = new RequestCoalescer();
+    final var computation = new CompletableFuture<String>();
+
+    final var first = coalescer.coalesce(METHOD, PATH, 1, "params", () -> computation);
+    final var second = coalescer.coalesce(METHOD, PATH, 1, "params", () -> computation);
+
+    first.cancel(true);
+    assertFalse(computation.isDone());
+    assertFalse(second.isDone());
+
+    second.cancel(true);
+    assertTrue(computation.isCancelled());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  private static CompletableFuture<String> startNew(AtomicInteger started) {
+    started.incrementAndGet();
+    return new CompletableFuture<>();
+  }
+}
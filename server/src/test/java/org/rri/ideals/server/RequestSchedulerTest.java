@@ -0,0 +1,89 @@
+package org.rri.ideals.server;
+
+import org.junit.Test;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestSchedulerTest {
+  private static final LspPath PATH = LspPath.fromLspUri("file:///e:/project/Test.java");
+  private static final LspPath OTHER_PATH = LspPath.fromLspUri("file:///e:/project/Other.java");
+
+  @Test
+  public void newerRequestSupersedesOlderOne() {
+    final var scheduler = new RequestScheduler();
+    final var before = Metrics.getCounter(RequestScheduler.SUPERSEDED_COUNTER);
+
+    final var first = scheduler.schedule("textDocument/completion", PATH, new CompletableFuture<String>());
+    final var second = scheduler.schedule("textDocument/completion", PATH, new CompletableFuture<String>());
+
+    assertTrue(first.isCancelled());
+    assertFalse(second.isDone());
+    assertEquals(1, scheduler.getInFlightCount());
+    assertEquals(before + 1, Metrics.getCounter(RequestScheduler.SUPERSEDED_COUNTER));
+  }
+
+  @Test
+  public void requestsOfDifferentKindsOrDocumentsAreIndependent() {
+    final var scheduler = new RequestScheduler();
+
+    final var completion = scheduler.schedule("textDocument/completion", PATH, new CompletableFuture<String>());
+    final var hover = scheduler.schedule("textDocument/hover", PATH, new CompletableFuture<String>());
+    final var otherCompletion = scheduler.schedule("textDocument/completion", OTHER_PATH, new CompletableFuture<String>());
+
+    assertFalse(completion.isDone());
+    assertFalse(hover.isDone());
+    assertFalse(otherCompletion.isDone());
+    assertEquals(3, scheduler.getInFlightCount());
+  }
+
+  @Test
+  public void documentChangeCancelsAllRequestsForDocument() {
+    final var scheduler = new RequestScheduler();
+
+    final var completion = scheduler.schedule("textDocument/completion", PATH, new CompletableFuture<String>());
+    final var hover = scheduler.schedule("textDocument/hover", PATH, new CompletableFuture<String>());
+    final var otherCompletion = scheduler.schedule("textDocument/completion", OTHER_PATH, new CompletableFuture<String>());
+
+    scheduler.documentChanged(PATH);
+
+    assertTrue(completion.isCancelled());
+    assertTrue(hover.isCancelled());
+    assertFalse(otherCompletion.isDone());
+    assertEquals(1, scheduler.getInFlightCount());
+  }
+
+  @Test
+  public void boundRequestsAreCancelledOnDocumentChangeOnly() {
+    final var scheduler = new RequestScheduler();
+
+    final var first = scheduler.bindToDocument(PATH, new CompletableFuture<String>());
+    final var second = scheduler.bindToDocument(PATH, new CompletableFuture<String>());
+    final var other = scheduler.bindToDocument(OTHER_PATH, new CompletableFuture<String>());
+
+    assertFalse(first.isDone());
+    assertEquals(3, scheduler.getInFlightCount());
+
+    scheduler.documentChanged(PATH);
+
+    assertTrue(first.isCancelled());
+    assertTrue(second.isCancelled());
+    assertFalse(other.isDone());
+    assertEquals(1, scheduler.getInFlightCount());
+  }
+
+  @Test
+  public void completedRequestsAreForgotten() {
+    final var scheduler = new RequestScheduler();
+
+    final var request = scheduler.schedule("textDocument/completion", PATH, new CompletableFuture<String>());
+    request.complete("done");
+
+    assertEquals(0, scheduler.getInFlightCount());
+
+    scheduler.documentChanged(PATH);
+    assertFalse(request.isCancelled());
+  }
+}
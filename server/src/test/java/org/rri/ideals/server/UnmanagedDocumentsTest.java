@@ -0,0 +1,71 @@
+package org.rri.ideals.server;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.impl.FileDocumentManagerImpl;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class UnmanagedDocumentsTest extends LspLightBasePlatformTestCase {
+  @Test
+  public void leastRecentlyUsedDocumentIsReleasedBeyondBudget() {
+    Registry.get("ideals.documents.retainedMb").setValue("1", getTestRootDisposable());
+    final var documents = getProject().getService(UnmanagedDocuments.class);
+    // 600 KB each, so the two of them don't fit into 1 MB
+    final var text = "a".repeat(300 * 1024);
+    final var first = myFixture.addFileToProject("First.txt", text).getVirtualFile();
+    final var second = myFixture.addFileToProject("Second.txt", text).getVirtualFile();
+    final var firstDocument = FileDocumentManager.getInstance().getDocument(first);
+    final var secondDocument = FileDocumentManager.getInstance().getDocument(second);
+    assertNotNull(firstDocument);
+    assertNotNull(secondDocument);
+    // as registered for the documents created by MiscUtil.getDocument
+    first.putUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY, firstDocument);
+    second.putUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY, secondDocument);
+
+    documents.touch(first, firstDocument);
+    documents.touch(second, secondDocument);
+    PlatformTestUtil.dispatchAllInvocationEventsInIdeEventQueue();
+
+    assertNull(first.getUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY));
+    assertSame(secondDocument, second.getUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY));
+    // the sizes of the documents are tracked in UTF-16
+    assertEquals(2L * text.length(), documents.getTotalBytes());
+  }
+
+  @Test
+  public void unsavedDocumentIsNotReleased() {
+    Registry.get("ideals.documents.retainedMb").setValue("1", getTestRootDisposable());
+    final var documents = getProject().getService(UnmanagedDocuments.class);
+    final var text = "a".repeat(300 * 1024);
+    final var unsaved = myFixture.addFileToProject("Unsaved.txt", text).getVirtualFile();
+    final var saved = myFixture.addFileToProject("Saved.txt", text).getVirtualFile();
+    final var unsavedDocument = FileDocumentManager.getInstance().getDocument(unsaved);
+    final var savedDocument = FileDocumentManager.getInstance().getDocument(saved);
+    assertNotNull(unsavedDocument);
+    assertNotNull(savedDocument);
+    // e.g. changed by a rename in a file not open in the client
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> unsavedDocument.insertString(0, "changed"));
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    unsaved.putUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY, unsavedDocument);
+
+    documents.touch(unsaved, unsavedDocument);
+    documents.touch(saved, savedDocument);
+    PlatformTestUtil.dispatchAllInvocationEventsInIdeEventQueue();
+
+    assertTrue(unsavedDocument.getText().startsWith("changed"));
+    assertTrue(FileDocumentManager.getInstance().isDocumentUnsaved(unsavedDocument));
+    assertSame(unsavedDocument, unsaved.getUserData(FileDocumentManagerImpl.HARD_REF_TO_DOCUMENT_KEY));
+    // pinned, so it doesn't count against the budget
+    assertEquals(2L * text.length(), documents.getTotalBytes());
+
+    // tracked again once saved, which makes the other one the least recently tracked
+    FileDocumentManager.getInstance().saveDocument(unsavedDocument);
+    assertEquals(2L * unsavedDocument.getTextLength(), documents.getTotalBytes());
+  }
+}
@@ -0,0 +1,91 @@
+package org.rri.ideals.server.benchmarks;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assume;
+import org.junit.Test;
+import org.rri.ideals.server.EditorPool;
+import org.rri.ideals.server.lsp.LspServerTestWithEngineBase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/**
+ * Measures the heap retained per open document, with an editor for every document (as it was before the editor pool)
+ * and with the editor pool of the default size.
+ * <p>
+ * Skipped unless run with {@code -Dideals.benchmark=true}, the number of documents is set by
+ * {@code ideals.benchmark.documents}.
+ */
+public class DocumentHeapBenchmarkTest extends LspServerTestWithEngineBase {
+  private static final String POOL_SIZE_KEY = "ideals.editors.poolSize";
+
+  @Override
+  protected @NotNull String getTestDataRelativePath() {
+    return "benchmarks/session";
+  }
+
+  @Override
+  public void setupServer() {
+    Assume.assumeTrue("the heap benchmark is enabled with -Dideals.benchmark=true", Boolean.getBoolean("ideals.benchmark"));
+    super.setupServer();
+  }
+
+  @Test
+  public void editorPerDocument() throws IOException {
+    final var documents = getDocumentCount();
+    Registry.get(POOL_SIZE_KEY).setValue(String.valueOf(documents), getTestRootDisposable());
+    measure("editor per document", documents);
+  }
+
+  @Test
+  public void pooledEditors() throws IOException {
+    measure("pooled editors (" + Registry.intValue(POOL_SIZE_KEY) + ")", getDocumentCount());
+  }
+
+  private void measure(@NotNull String title, int documents) throws IOException {
+    final var items = new ArrayList<TextDocumentItem>();
+    final var generated = getProjectPath().resolve(getSourceRoot()).resolve("generated");
+    Files.createDirectories(generated);
+    for (int i = 0; i < documents; i++) {
+      final var file = generated.resolve("Generated" + i + ".java");
+      final var text = javaClass("Generated" + i, 30);
+      Files.writeString(file, text);
+      items.add(new TextDocumentItem(file.toUri().toString(), "java", 1, text));
+    }
+
+    final var before = usedHeap();
+    items.forEach(item -> server().getTextDocumentService().didOpen(new DidOpenTextDocumentParams(item)));
+    final var after = usedHeap();
+
+    System.out.printf("%-28s %6d documents, %4d editors, %8.1f KiB per document%n", title, documents,
+        server().getProject().getService(EditorPool.class).size(), (after - before) / 1024.0 / documents);
+  }
+
+  private static int getDocumentCount() {
+    return Integer.getInteger("ideals.benchmark.documents", 200);
+  }
+
+  @NotNull
+  private static String javaClass(@NotNull String name, int methods) {
+    final var builder = new StringBuilder("package generated;\n\npublic class ").append(name).append(" {\n");
+    for (int i = 0; i < methods; i++) {
+      builder.append("  public int method").append(i).append("(int argument) {\n")
+          .append("    final var value = argument * ").append(i).append(";\n")
+          .append("    return value + \"").append(name).append("\".length();\n")
+          .append("  }\n\n");
+    }
+    return builder.append("}\n").toString();
+  }
+
+  private static long usedHeap() {
+    final var runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,174 @@
+package org.rri.ideals.server.benchmarks;
+
+import org.eclipse.lsp4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assume;
+import org.junit.Test;
+import org.rri.ideals.server.TestUtil;
+import org.rri.ideals.server.lsp.LspServerTestWithEngineBase;
+import org.rri.ideals.server.util.LatencyHistogram;
+import org.rri.ideals.server.util.Metrics;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Replays a scripted editing session against a real server and reports client-observed latencies per method.
+ * <p>
+ * All files of the fixture are opened, then in every round a line is typed character by character
+ * (with a completion request after each character) and saved, and completion, hover, definition and references
+ * are requested at every {@code probe} marker.
+ * The test fails if the p99 latency of a method exceeds its threshold.
+ * <p>
+ * Skipped unless run with {@code -Dideals.benchmark=true}, e.g.
+ * {@code ./gradlew test --tests "org.rri.ideals.server.benchmarks.*" -Dideals.benchmark=true}.
+ * The number of rounds is set by {@code ideals.benchmark.rounds}, the thresholds (in milliseconds) by
+ * {@code ideals.benchmark.p99.<method>}, e.g. {@code -Dideals.benchmark.p99.textDocument/hover=200}.
+ */
+public class LatencyBenchmarkTest extends LspServerTestWithEngineBase {
+  private static final String PROBE_MARKER = "probe";
+  private static final String TYPE_MARKER = "type";
+  private static final String TYPED_TEXT = "shape.area();";
+  private static final long REQUEST_TIMEOUT_MS = 30_000;
+
+  private static final Map<String, Long> DEFAULT_P99_THRESHOLDS_MS = Map.of(
+      "textDocument/didOpen", 2_000L,
+      "textDocument/didChange", 500L,
+      "textDocument/didSave", 500L,
+      "textDocument/completion", 2_000L,
+      "textDocument/hover", 1_000L,
+      "textDocument/definition", 1_000L,
+      "textDocument/references", 3_000L);
+
+  private final Map<String, LatencyHistogram> histograms = new TreeMap<>();
+  private final Map<String, Integer> versions = new HashMap<>();
+
+  @Override
+  protected @NotNull String getTestDataRelativePath() {
+    return "benchmarks/session";
+  }
+
+  @Override
+  public void setupServer() {
+    Assume.assumeTrue("the latency benchmark is enabled with -Dideals.benchmark=true", Boolean.getBoolean("ideals.benchmark"));
+    super.setupServer();
+  }
+
+  @Test
+  public void replaySession() {
+    final var rounds = Integer.getInteger("ideals.benchmark.rounds", 5);
+    final var texts = getEngine().getTextsByFile();
+    final var markers = getEngine().getMarkersByFile();
+
+    texts.forEach((uri, text) -> measure("textDocument/didOpen", () -> {
+      versions.put(uri, 1);
+      server().getTextDocumentService().didOpen(
+          new DidOpenTextDocumentParams(new TextDocumentItem(uri, "java", 1, text)));
+      return CompletableFuture.completedFuture(null);
+    }));
+
+    for (int round = 0; round < rounds; round++) {
+      markers.forEach((uri, fileMarkers) -> {
+        for (var marker : fileMarkers) {
+          final var position = offsetToPosition(texts.get(uri), marker.range.startOffset());
+          switch (marker.name) {
+            case PROBE_MARKER -> probe(uri, position);
+            case TYPE_MARKER -> type(uri, position);
+          }
+        }
+      });
+    }
+
+    report();
+  }
+
+  private void probe(@NotNull String uri, @NotNull Position position) {
+    final var document = new TextDocumentIdentifier(uri);
+    final var service = server().getTextDocumentService();
+
+    measure("textDocument/completion", () -> service.completion(new CompletionParams(document, position)));
+    measure("textDocument/hover", () -> service.hover(new HoverParams(document, position)));
+    measure("textDocument/definition", () -> service.definition(new DefinitionParams(document, position)));
+    measure("textDocument/references", () -> service.references(
+        new ReferenceParams(document, position, new ReferenceContext(true))));
+  }
+
+  // types the text character by character, as a user does, and then removes it to restore the original state
+  private void type(@NotNull String uri, @NotNull Position position) {
+    final var service = server().getTextDocumentService();
+    for (int i = 0; i < TYPED_TEXT.length(); i++) {
+      final var at = new Position(position.getLine(), position.getCharacter() + i);
+      change(uri, new Range(at, at), String.valueOf(TYPED_TEXT.charAt(i)));
+
+      final var caret = new Position(position.getLine(), position.getCharacter() + i + 1);
+      measure("textDocument/completion", () -> service.completion(
+          new CompletionParams(new TextDocumentIdentifier(uri), caret)));
+    }
+
+    final var end = new Position(position.getLine(), position.getCharacter() + TYPED_TEXT.length());
+    change(uri, new Range(position, end), "");
+
+    measure("textDocument/didSave", () -> {
+      service.didSave(new DidSaveTextDocumentParams(new TextDocumentIdentifier(uri)));
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  private void change(@NotNull String uri, @NotNull Range range, @NotNull String text) {
+    final int version = versions.merge(uri, 1, Integer::sum);
+    measure("textDocument/didChange", () -> {
+      server().getTextDocumentService().didChange(new DidChangeTextDocumentParams(
+          new VersionedTextDocumentIdentifier(uri, version),
+          List.of(new TextDocumentContentChangeEvent(range, text))));
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  private void measure(@NotNull String method, @NotNull Supplier<CompletableFuture<?>> request) {
+    final var start = System.nanoTime();
+    TestUtil.getNonBlockingEdt(request.get(), REQUEST_TIMEOUT_MS);
+    histograms.computeIfAbsent(method, it -> new LatencyHistogram()).record(System.nanoTime() - start);
+  }
+
+  private void report() {
+    final var regressions = new ArrayList<String>();
+    System.out.printf("%-28s %8s %10s %10s %10s %10s%n", "method", "count", "p50, ms", "p95, ms", "p99, ms", "max, ms");
+    histograms.forEach((method, histogram) -> {
+      final var snapshot = histogram.snapshot();
+      System.out.printf("%-28s %8d %10.1f %10.1f %10.1f %10.1f%n", method, snapshot.count(),
+          millis(snapshot.p50Micros()), millis(snapshot.p95Micros()), millis(snapshot.p99Micros()), millis(snapshot.maxMicros()));
+
+      final var threshold = Long.getLong("ideals.benchmark.p99." + method, DEFAULT_P99_THRESHOLDS_MS.getOrDefault(method, Long.MAX_VALUE));
+      if (millis(snapshot.p99Micros()) > threshold) {
+        regressions.add(method + ": p99 " + millis(snapshot.p99Micros()) + " ms > " + threshold + " ms");
+      }
+    });
+
+    // the server side view of the same requests, broken down into phases
+    System.out.println();
+    Metrics.snapshot().histograms().forEach((name, snapshot) ->
+        System.out.printf("%-40s %8d %10.1f %10.1f %10.1f%n", name, snapshot.count(),
+            millis(snapshot.p50Micros()), millis(snapshot.p95Micros()), millis(snapshot.p99Micros())));
+
+    assertTrue("latency thresholds exceeded:\n" + String.join("\n", regressions), regressions.isEmpty());
+  }
+
+  private static double millis(long micros) {
+    return micros / (double) TimeUnit.MILLISECONDS.toMicros(1);
+  }
+
+  @NotNull
+  private static Position offsetToPosition(@NotNull String text, int offset) {
+    int line = 0;
+    int lineStart = 0;
+    for (int i = 0; i < offset; i++) {
+      if (text.charAt(i) == '\n') {
+        line++;
+        lineStart = i + 1;
+      }
+    }
+    return new Position(line, offset - lineStart);
+  }
+}
@@ -0,0 +1,152 @@
+package org.rri.ideals.server.benchmarks;
+
+import org.rri.ideals.server.util.LaneExecutor;
+import org.rri.ideals.server.util.RequestLane;
+import org.rri.ideals.server.util.VirtualThreads;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the request lanes on platform threads and on virtual threads when many clients send requests concurrently.
+ * <p>
+ * A simulated handler behaves like the real ones do most of the time: it waits for a short piece of work
+ * done in a single "EDT" thread (as {@code invokeAndWait} does) and then parks waiting for a result
+ * (as {@code Future.get()} or {@code LinkedBlockingQueue.take()} do).
+ * For each lane the benchmark reports the peak number of platform threads, the peak heap usage,
+ * the throughput and the number of requests rejected by the saturated lane.
+ * <p>
+ * Run with {@code ./gradlew threadingBenchmark}; the optional arguments are the number of clients,
+ * requests per client, EDT work per request (microseconds), parking time per request (milliseconds),
+ * and the concurrency and queue depth of the lane.
+ */
+public class ThreadingBenchmark {
+  private record Params(int clients, int requestsPerClient, long edtMicros, long parkMillis,
+                        int concurrency, int queueDepth) {
+  }
+
+  private record Result(String name, int peakThreads, long peakHeapBytes, double throughput, long wallMillis,
+                        long rejected) {
+  }
+
+  public static void main(String[] args) throws Exception {
+    final var params = new Params(
+        intArg(args, 0, 64),
+        intArg(args, 1, 50),
+        intArg(args, 2, 20),
+        intArg(args, 3, 10),
+        intArg(args, 4, 4),
+        intArg(args, 5, 64));
+
+    System.out.printf("clients=%d, requests per client=%d, EDT work=%d us, parking=%d ms, lane concurrency=%d, queue depth=%d%n",
+        params.clients(), params.requestsPerClient(), params.edtMicros(), params.parkMillis(),
+        params.concurrency(), params.queueDepth());
+    System.out.printf("%-24s %14s %14s %16s %10s %10s%n",
+        "lane", "peak threads", "peak heap, MB", "throughput, rps", "wall, ms", "rejected");
+
+    for (var virtual : new boolean[]{false, true}) {
+      final var name = virtual ? "virtual threads" : "platform threads";
+      // warm up, then measure
+      run(name, virtual, new Params(Math.min(16, params.clients()), 2, params.edtMicros(), params.parkMillis(),
+          params.concurrency(), params.queueDepth()));
+      final var result = run(name, virtual, params);
+      System.out.printf("%-24s %14d %14.1f %16.0f %10d %10d%n",
+          result.name(), result.peakThreads(), result.peakHeapBytes() / 1024.0 / 1024.0, result.throughput(),
+          result.wallMillis(), result.rejected());
+    }
+  }
+
+  private static Result run(String name, boolean virtual, Params params) throws Exception {
+    final var threads = ManagementFactory.getThreadMXBean();
+    final var memory = ManagementFactory.getMemoryMXBean();
+    final var edt = Executors.newSingleThreadExecutor(r -> new Thread(r, "simulated EDT"));
+    final var sampler = Executors.newSingleThreadScheduledExecutor();
+    final var virtualThreads = virtual ? VirtualThreads.newExecutor("benchmark lane") : null;
+    // the same executor the lane is backed by in the server
+    final var lane = RequestLane.createExecutor("benchmark", params.concurrency(), params.queueDepth(), virtualThreads);
+
+    System.gc();
+    final var heapBefore = memory.getHeapMemoryUsage().getUsed();
+    final var peakHeap = new AtomicLong(heapBefore);
+    sampler.scheduleAtFixedRate(
+        () -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+        0, 5, TimeUnit.MILLISECONDS);
+    threads.resetPeakThreadCount();
+
+    final var done = new CountDownLatch(params.clients());
+    final var completed = new AtomicLong();
+    final var rejected = new AtomicLong();
+    final var start = System.nanoTime();
+    for (int i = 0; i < params.clients(); i++) {
+      sendNext(lane, edt, params, params.requestsPerClient(), done, completed, rejected);
+    }
+    done.await();
+    final var wallNanos = System.nanoTime() - start;
+
+    final var peakThreads = threads.getPeakThreadCount();
+    sampler.shutdownNow();
+    if (virtualThreads != null) {
+      virtualThreads.shutdownNow();
+    }
+    edt.shutdownNow();
+
+    return new Result(name,
+        peakThreads,
+        Math.max(0, peakHeap.get() - heapBefore),
+        completed.get() * 1e9 / wallNanos,
+        TimeUnit.NANOSECONDS.toMillis(wallNanos),
+        rejected.get());
+  }
+
+  // every client waits for a response before sending the next request; a rejected request isn't retried
+  private static void sendNext(LaneExecutor lane,
+                               ExecutorService edt,
+                               Params params,
+                               int remaining,
+                               CountDownLatch done,
+                               AtomicLong completed,
+                               AtomicLong rejected) {
+    for (var left = remaining; left > 0; left--) {
+      final var next = left - 1;
+      try {
+        lane.execute(() -> {
+          handleRequest(edt, params);
+          completed.incrementAndGet();
+          sendNext(lane, edt, params, next, done, completed, rejected);
+        });
+        return;
+      } catch (RejectedExecutionException e) {
+        rejected.incrementAndGet();
+      }
+    }
+    done.countDown();
+  }
+
+  private static void handleRequest(ExecutorService edt, Params params) {
+    try {
+      edt.submit(() -> spin(params.edtMicros())).get();
+      Thread.sleep(params.parkMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void spin(long micros) {
+    final var deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+    while (System.nanoTime() < deadline) {
+      Thread.onSpinWait();
+    }
+  }
+
+  private static int intArg(String[] args, int index, int defaultValue) {
+    return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+  }
+}
@@ -3,9 +3,13 @@ package org.rri.ideals.server.completions;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import com.intellij.codeInsight.completion.impl.CamelHumpMatcher;
+import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.LogicalPosition;
 import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.psi.PsiFile;
 import com.intellij.testFramework.TestModeFlags;
 import com.jetbrains.python.PythonFileType;
@@ -25,6 +29,7 @@ import org.rri.ideals.server.completions.generators.CompletionTestGenerator;
 import org.rri.ideals.server.engine.IdeaTestFixture;
 import org.rri.ideals.server.engine.TestEngine;
 import org.rri.ideals.server.generator.IdeaOffsetPositionConverter;
+import org.rri.ideals.server.util.Metrics;
 import org.rri.ideals.server.util.MiscUtil;
 
 import java.util.ArrayList;
@@ -268,7 +273,7 @@ public class CompletionServiceTest extends LspLightBasePlatformTestCase {
     myFixture.openFileInEditor(psiFile.getVirtualFile());
     myFixture.getEditor().getCaretModel().moveToLogicalPosition(new LogicalPosition(params.getPosition().getLine(), params.getPosition().getCharacter()));
 
-    var completionItems = cs.computeCompletions(new ExecutorContext(psiFile, myFixture.getEditor(), new TestUtil.DumbCancelChecker()));
+    var completionItems = cs.computeCompletions(new ExecutorContext(psiFile, myFixture.getEditor(), new TestUtil.DumbCancelChecker())).getItems();
     if (completionTestParams.finder != null) {
       var compItem = completionItems.stream().filter(completionTestParams.finder).findFirst().orElseThrow();
       compItem.setData(gson.fromJson(gson.toJson(compItem.getData()), JsonObject.class));
@@ -332,6 +337,197 @@ public class CompletionServiceTest extends LspLightBasePlatformTestCase {
             .resolveCompletion(targetCompletionItem, cancelChecker));
   }
 
+  @Test
+  public void testExtendedPrefixIsRefiltered() {
+    var psiFile = myFixture.configureByText(
+        JavaFileType.INSTANCE,
+        """
+            class A {
+              void valueOne() {}
+              void valueTwo() {}
+              void other() {}
+              void f() { val<caret> }
+            }""");
+    var cs = getProject().getService(CompletionService.class);
+
+    var first = cs.computeCompletions(new ExecutorContext(psiFile, myFixture.getEditor(), new TestUtil.DumbCancelChecker()));
+    assertFalse(first.getIsIncomplete());
+    assertTrue(first.getItems().stream().anyMatch(item -> item.getLabel().equals("valueTwo")));
+
+    var editor = myFixture.getEditor();
+    var offset = editor.getCaretModel().getOffset();
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> editor.getDocument().insertString(offset, "ueO"));
+    editor.getCaretModel().moveToOffset(offset + 3);
+
+    var refilteredBefore = Metrics.getCounter(CompletionService.REFILTERED_COMPLETIONS_COUNTER);
+    var second = cs.computeCompletions(new ExecutorContext(psiFile, editor, new TestUtil.DumbCancelChecker()));
+
+    assertEquals(refilteredBefore + 1, Metrics.getCounter(CompletionService.REFILTERED_COMPLETIONS_COUNTER));
+    var valueOne = second.getItems().stream()
+        .filter(item -> item.getLabel().equals("valueOne"))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("completion item not found"));
+    assertTrue(second.getItems().stream().noneMatch(item -> item.getLabel().equals("valueTwo")));
+    assertEquals(new Range(new Position(4, 13), new Position(4, 19)), valueOne.getTextEdit().getLeft().getRange());
+  }
+
+  @Test
+  public void testItemsOfListBeforeRefilterAreResolved() {
+    var psiFile = myFixture.configureByText(
+        JavaFileType.INSTANCE,
+        """
+            class A {
+              void valueOne() {}
+              void valueTwo() {}
+              void f() { val<caret> }
+            }""");
+    var cs = getProject().getService(CompletionService.class);
+
+    var first = cs.computeCompletions(new ExecutorContext(psiFile, myFixture.getEditor(), new TestUtil.DumbCancelChecker()));
+    var firstItem = first.getItems().stream()
+        .filter(item -> item.getLabel().equals("valueTwo"))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("completion item not found"));
+
+    var editor = myFixture.getEditor();
+    var offset = editor.getCaretModel().getOffset();
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> editor.getDocument().insertString(offset, "u"));
+    editor.getCaretModel().moveToOffset(offset + 1);
+    var refilteredBefore = Metrics.getCounter(CompletionService.REFILTERED_COMPLETIONS_COUNTER);
+    cs.computeCompletions(new ExecutorContext(psiFile, editor, new TestUtil.DumbCancelChecker()));
+    assertEquals(refilteredBefore + 1, Metrics.getCounter(CompletionService.REFILTERED_COMPLETIONS_COUNTER));
+
+    // the client may still resolve the items it got before the re-filtered list
+    firstItem.setData(gson.fromJson(gson.toJson(firstItem.getData()), JsonObject.class));
+    var missesBefore = Metrics.getCounter(CompletionCache.MISSES_COUNTER);
+    var resolved = cs.resolveCompletion(firstItem, new TestUtil.DumbCancelChecker());
+
+    assertEquals(missesBefore, Metrics.getCounter(CompletionCache.MISSES_COUNTER));
+    assertNotNull(resolved.getTextEdit());
+    assertTrue(resolved.getTextEdit().getLeft().getNewText().startsWith("valueTwo("));
+  }
+
+  @Test
+  public void testTruncatedListIsIncomplete() {
+    Registry.get("ideals.completion.maxItems").setValue("2", getTestRootDisposable());
+    var psiFile = myFixture.configureByText(
+        JavaFileType.INSTANCE,
+        """
+            class A {
+              void valueOne() {}
+              void valueTwo() {}
+              void valueThree() {}
+              void f() { val<caret> }
+            }""");
+    var cs = getProject().getService(CompletionService.class);
+
+    var truncated = cs.computeCompletions(new ExecutorContext(psiFile, myFixture.getEditor(), new TestUtil.DumbCancelChecker()));
+    assertTrue(truncated.getIsIncomplete());
+    assertEquals(2, truncated.getItems().size());
+
+    var editor = myFixture.getEditor();
+    var offset = editor.getCaretModel().getOffset();
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> editor.getDocument().insertString(offset, "ueT"));
+    editor.getCaretModel().moveToOffset(offset + 3);
+
+    var narrowed = cs.computeCompletions(new ExecutorContext(psiFile, editor, new TestUtil.DumbCancelChecker()));
+    assertFalse(narrowed.getIsIncomplete());
+    assertEquals(Set.of("valueTwo", "valueThree"),
+        narrowed.getItems().stream().map(CompletionItem::getLabel).collect(Collectors.toSet()));
+  }
+
+  @Test
+  public void testItemLimitFollowsPrefixAtCaret() {
+    Registry.get("ideals.completion.maxItems").setValue("8", getTestRootDisposable());
+    // keywords and live templates ignore the prefix typed at the caret
+    var keyword = new LookupElementWithMatcher(LookupElementBuilder.create("if"), new CamelHumpMatcher(""));
+    var typed = new LookupElementWithMatcher(LookupElementBuilder.create("valueOne"), new CamelHumpMatcher("val"));
+    var oneChar = new LookupElementWithMatcher(LookupElementBuilder.create("valueTwo"), new CamelHumpMatcher("v"));
+
+    assertEquals(8, CompletionService.getItemLimit(List.of(keyword, typed)));
+    assertEquals(4, CompletionService.getItemLimit(List.of(keyword, oneChar)));
+    assertEquals(2, CompletionService.getItemLimit(List.of(keyword)));
+  }
+
+  @Test
+  public void testJavaKindsAreClassifiedWithoutIcons() {
+    var psiFile = myFixture.configureByText(
+        JavaFileType.INSTANCE,
+        """
+            class A {
+              static final int COUNT_LIMIT = 1;
+              int countField;
+              void countMethod() {}
+              void f() { count<caret> }
+            }""");
+
+    var byIconBefore = Metrics.getCounter(CompletionService.KINDS_BY_ICON_COUNTER);
+    var items = getCompletionListAtPosition(psiFile, new Position(4, 18));
+
+    assertEquals(byIconBefore, Metrics.getCounter(CompletionService.KINDS_BY_ICON_COUNTER));
+    var kinds = items.stream().collect(Collectors.toMap(CompletionItem::getLabel, CompletionItem::getKind, (a, b) -> a));
+    assertEquals(CompletionItemKind.Field, kinds.get("countField"));
+    assertEquals(CompletionItemKind.Method, kinds.get("countMethod"));
+  }
+
+  @Test
+  public void testResolvesShareParsedSnapshot() {
+    var psiFile = myFixture.configureByText(
+        JavaFileType.INSTANCE,
+        """
+            class A {
+              void valueOne() {}
+              void valueTwo() {}
+              void f() { val<caret> }
+            }""");
+    var cs = getProject().getService(CompletionService.class);
+    var items = getCompletionListAtPosition(psiFile, new Position(3, 16));
+
+    var parsesBefore = Metrics.getCounter(CompletionSnapshot.PARSES_COUNTER);
+    for (var label : List.of("valueOne", "valueTwo", "valueOne")) {
+      var item = items.stream()
+          .filter(completionItem -> completionItem.getLabel().equals(label))
+          .findFirst()
+          .orElseThrow(() -> new AssertionError("completion item not found"));
+      item.setData(gson.fromJson(gson.toJson(item.getData()), JsonObject.class));
+
+      var resolved = cs.resolveCompletion(item, new TestUtil.DumbCancelChecker());
+      assertEquals(new Range(new Position(3, 13), new Position(3, 16)), resolved.getTextEdit().getLeft().getRange());
+      assertTrue(resolved.getTextEdit().getLeft().getNewText().startsWith(label + "("));
+    }
+    assertEquals(parsesBefore + 1, Metrics.getCounter(CompletionSnapshot.PARSES_COUNTER));
+  }
+
+  @Test
+  public void testCompletionsOfDifferentFilesAreKept() {
+    var first = myFixture.configureByText("First.java", """
+        class First {
+          void valueOne() {}
+          void f() { val<caret> }
+        }""");
+    var firstItem = getCompletionListAtPosition(first, new Position(2, 16)).stream()
+        .filter(completionItem -> completionItem.getLabel().equals("valueOne"))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("completion item not found"));
+
+    var second = myFixture.configureByText("Second.java", """
+        class Second {
+          void valueTwo() {}
+          void f() { val<caret> }
+        }""");
+    assertTrue(getCompletionListAtPosition(second, new Position(2, 16)).stream()
+        .anyMatch(completionItem -> completionItem.getLabel().equals("valueTwo")));
+
+    firstItem.setData(gson.fromJson(gson.toJson(firstItem.getData()), JsonObject.class));
+    var missesBefore = Metrics.getCounter(CompletionCache.MISSES_COUNTER);
+    var resolved = getProject().getService(CompletionService.class)
+        .resolveCompletion(firstItem, new TestUtil.DumbCancelChecker());
+
+    assertEquals(missesBefore, Metrics.getCounter(CompletionCache.MISSES_COUNTER));
+    assertNotNull(resolved.getTextEdit());
+    assertTrue(resolved.getTextEdit().getLeft().getNewText().startsWith("valueOne("));
+  }
+
   private static class AlwaysTrueCancelChecker implements CancelChecker {
     @Override
     public void checkCanceled() {
@@ -351,7 +547,7 @@ public class CompletionServiceTest extends LspLightBasePlatformTestCase {
                                                                     @NotNull CancelChecker cancelChecker) {
     myFixture.getEditor().getCaretModel().moveToLogicalPosition(new LogicalPosition(position.getLine(), position.getCharacter()));
     return getProject().getService(CompletionService.class).computeCompletions(
-        new ExecutorContext(file, myFixture.getEditor(), cancelChecker));
+        new ExecutorContext(file, myFixture.getEditor(), cancelChecker)).getItems();
   }
 
   static private void runWithTemplateFlags(@NotNull Runnable action) {
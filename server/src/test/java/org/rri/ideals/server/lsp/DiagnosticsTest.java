@@ -1,5 +1,6 @@
 package org.rri.ideals.server.lsp;
 
+import com.intellij.openapi.util.registry.Registry;
 import org.eclipse.lsp4j.*;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
@@ -79,6 +80,18 @@ public class DiagnosticsTest extends LspServerTestBase {
     Assert.assertEquals(new Range(new Position(3, 15), new Position(3, 16)), diagnostic2.getRange());
   }
 
+  @Test
+  public void diagnosticsOfEvictedEditorAreCleared() {
+    Registry.get("ideals.editors.poolSize").setValue("1", getTestRootDisposable());
+    final var evictedPath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+
+    sendOpen(evictedPath);
+    sendOpen(LspPath.fromLocalPath(getProjectPath().resolve("src/CodeActions.java")));
+
+    Assert.assertTrue(client().getPublishedDiagnostics().stream()
+        .anyMatch(params -> evictedPath.equals(LspPath.fromLspUri(params.getUri())) && params.getDiagnostics().isEmpty()));
+  }
+
   private void sendOpen(@NotNull LspPath filePath) {
     //noinspection CodeBlock2Expr
     final var didOpenTextDocumentParams = MiscUtil.with(new DidOpenTextDocumentParams(), params -> {
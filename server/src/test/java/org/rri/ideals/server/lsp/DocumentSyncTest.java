@@ -0,0 +1,175 @@
+package org.rri.ideals.server.lsp;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.TimeoutUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.eclipse.lsp4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.rri.ideals.server.LspPath;
+import org.rri.ideals.server.ManagedDocuments;
+import org.rri.ideals.server.TestUtil;
+import org.rri.ideals.server.util.Metrics;
+import org.rri.ideals.server.util.MiscUtil;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+public class DocumentSyncTest extends LspServerTestBase {
+
+  @Override
+  protected String getProjectRelativePath() {
+    return "lsp/project1";
+  }
+
+  @Test
+  public void outOfOrderChangesAreAppliedInVersionOrder() throws Exception {
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+
+    // received while the EDT is busy, so both end up in the same batch
+    ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      change(filePath, 3, List.of(insert(0, 1, "b")));
+      change(filePath, 2, List.of(insert(0, 0, "a")));
+    }).get();
+    PlatformTestUtil.dispatchAllInvocationEventsInIdeEventQueue();
+
+    Assert.assertTrue(getText(filePath).startsWith("abclass Test {"));
+    Assert.assertTrue(client().getResyncRequests().isEmpty());
+  }
+
+  @Test
+  public void skippedVersionsAreAccepted() {
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+
+    change(filePath, 3, List.of(insert(0, 0, "a")));
+    change(filePath, 7, List.of(insert(0, 0, "b")));
+
+    Assert.assertTrue(getText(filePath).startsWith("baclass Test {"));
+    Assert.assertTrue(client().getResyncRequests().isEmpty());
+  }
+
+  @Test
+  public void characterBeyondLineMeansLineEnd() {
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+    final var firstLine = getText(filePath).lines().findFirst().orElseThrow();
+
+    change(filePath, 2, List.of(insert(0, 1000, "// end")));
+
+    Assert.assertTrue(getText(filePath).startsWith(firstLine + "// end\n"));
+    Assert.assertTrue(client().getResyncRequests().isEmpty());
+  }
+
+  @Test
+  public void driftedDocumentIsResynced() {
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+    final var text = getText(filePath);
+
+    // none of the changes is applied if one of them doesn't fit the document
+    change(filePath, 2, List.of(insert(0, 0, "a"), insert(1000, 0, "b")));
+
+    Assert.assertEquals(1, client().getResyncRequests().size());
+    Assert.assertEquals(filePath, LspPath.fromLspUri(client().getResyncRequests().get(0).getUri()));
+    Assert.assertEquals(text, getText(filePath));
+
+    // applied while the resync is awaited, as far as they fit
+    change(filePath, 3, List.of(insert(0, 0, "c")));
+    Assert.assertEquals("c" + text, getText(filePath));
+
+    // the full text may come with the version of the last change
+    change(filePath, 3, List.of(new TextDocumentContentChangeEvent("class Resynced {}\n")));
+    Assert.assertEquals("class Resynced {}\n", getText(filePath));
+
+    change(filePath, 4, List.of(insert(0, 0, "final ")));
+    Assert.assertEquals("final class Resynced {}\n", getText(filePath));
+    Assert.assertEquals(1, client().getResyncRequests().size());
+  }
+
+  @Test
+  public void unansweredResyncIsRequestedAgain() {
+    Registry.get("ideals.documents.resyncTimeoutMs").setValue("0", getTestRootDisposable());
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+
+    change(filePath, 2, List.of(insert(1000, 0, "a")));
+    TimeoutUtil.sleep(1);
+    change(filePath, 3, List.of(insert(1000, 0, "b")));
+
+    Assert.assertEquals(2, client().getResyncRequests().size());
+  }
+
+  @Test
+  public void requestWaitsForBackgroundCommit() {
+    Registry.get("ideals.documents.commitWaitMs").setValue("30000", getTestRootDisposable());
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+    final var waits = Metrics.getCounter(ManagedDocuments.COMMIT_WAITS_COUNTER);
+    final var commits = Metrics.getCounter(ManagedDocuments.COMMITS_COUNTER);
+
+    change(filePath, 2, List.of(insert(0, 0, "final ")));
+    Assert.assertFalse(isCommitted(filePath));
+    waitForChanges(filePath);
+
+    Assert.assertTrue(isCommitted(filePath));
+    Assert.assertEquals(waits + 1, Metrics.getCounter(ManagedDocuments.COMMIT_WAITS_COUNTER));
+    // committed in background rather than by the request
+    Assert.assertEquals(commits, Metrics.getCounter(ManagedDocuments.COMMITS_COUNTER));
+  }
+
+  @Test
+  public void requestCommitsWhenBackgroundCommitIsLate() {
+    Registry.get("ideals.documents.commitWaitMs").setValue("0", getTestRootDisposable());
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    open(filePath);
+
+    change(filePath, 2, List.of(insert(0, 0, "final ")));
+    waitForChanges(filePath);
+
+    Assert.assertTrue(isCommitted(filePath));
+  }
+
+  private void waitForChanges(@NotNull LspPath filePath) {
+    final var documents = server().getProject().getService(ManagedDocuments.class);
+    TestUtil.getNonBlockingEdt(CompletableFuture.runAsync(
+        () -> documents.waitForChanges(filePath, new TestUtil.DumbCancelChecker()),
+        AppExecutorUtil.getAppExecutorService()), 30000);
+  }
+
+  private boolean isCommitted(@NotNull LspPath filePath) {
+    final var document = FileDocumentManager.getInstance().getCachedDocument(Objects.requireNonNull(filePath.findVirtualFile()));
+    return PsiDocumentManager.getInstance(server().getProject()).isCommitted(Objects.requireNonNull(document));
+  }
+
+  private void open(@NotNull LspPath filePath) {
+    final var text = MiscUtil.makeThrowsUnchecked(() -> Files.readString(filePath.toPath()));
+    server().getTextDocumentService().didOpen(
+        new DidOpenTextDocumentParams(new TextDocumentItem(filePath.toLspUri(), "java", 1, text)));
+  }
+
+  private void change(@NotNull LspPath filePath, int version, @NotNull List<TextDocumentContentChangeEvent> changes) {
+    server().getTextDocumentService().didChange(
+        new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(filePath.toLspUri(), version), changes));
+  }
+
+  @NotNull
+  private static TextDocumentContentChangeEvent insert(int line, int character, @NotNull String text) {
+    final var position = new Position(line, character);
+    return new TextDocumentContentChangeEvent(new Range(position, position), text);
+  }
+
+  @NotNull
+  private static String getText(@NotNull LspPath filePath) {
+    final var document = FileDocumentManager.getInstance().getCachedDocument(Objects.requireNonNull(filePath.findVirtualFile()));
+    return Objects.requireNonNull(document).getText();
+  }
+}
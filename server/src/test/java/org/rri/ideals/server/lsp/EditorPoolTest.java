@@ -0,0 +1,78 @@
+package org.rri.ideals.server.lsp;
+
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.testFramework.PlatformTestUtil;
+import org.eclipse.lsp4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.rri.ideals.server.EditorPool;
+import org.rri.ideals.server.LspPath;
+import org.rri.ideals.server.TestUtil;
+import org.rri.ideals.server.util.AsyncExecutor;
+import org.rri.ideals.server.util.Metrics;
+import org.rri.ideals.server.util.MiscUtil;
+
+import java.nio.file.Files;
+import java.util.List;
+
+public class EditorPoolTest extends LspServerTestBase {
+
+  @Override
+  protected String getProjectRelativePath() {
+    return "lsp/project1";
+  }
+
+  @Test
+  public void leaseIsEndedWhenCaretPlacementFails() {
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+
+    // a negative line can't be converted to an offset
+    final var result = AsyncExecutor.<Void>builder()
+        .executorContext(server().getProject(), filePath.toLspUri(), new Position(-1, 0))
+        .editorRequired(true)
+        .build()
+        .compute(context -> null);
+    Assert.assertThrows(RuntimeException.class, () -> TestUtil.getNonBlockingEdt(result, 30000));
+    PlatformTestUtil.dispatchAllInvocationEventsInIdeEventQueue();
+
+    final var editorPool = server().getProject().getService(EditorPool.class);
+    Assert.assertEquals(0, editorPool.getLeaseCount());
+    Assert.assertEquals(0, editorPool.size());
+  }
+
+  @Test
+  public void editingDocumentWithPooledEditorEvictsNothing() {
+    Registry.get("ideals.editors.poolSize").setValue("1", getTestRootDisposable());
+    final var evictedPath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    final var pooledPath = LspPath.fromLocalPath(getProjectPath().resolve("src/CodeActions.java"));
+    open(evictedPath);
+    open(pooledPath);
+    final var evicted = Metrics.getCounter(EditorPool.EVICTED_COUNTER);
+
+    change(pooledPath, 2);
+    change(pooledPath, 3);
+    Assert.assertEquals(evicted, Metrics.getCounter(EditorPool.EVICTED_COUNTER));
+
+    // the edited document whose editor was evicted gets it back, and the other one keeps its diagnostics
+    final var published = client().getPublishedDiagnostics().size();
+    change(evictedPath, 2);
+    Assert.assertEquals(evicted + 1, Metrics.getCounter(EditorPool.EVICTED_COUNTER));
+    Assert.assertTrue(client().getPublishedDiagnostics().subList(published, client().getPublishedDiagnostics().size())
+        .stream()
+        .noneMatch(params -> pooledPath.equals(LspPath.fromLspUri(params.getUri())) && params.getDiagnostics().isEmpty()));
+  }
+
+  private void open(@NotNull LspPath filePath) {
+    final var text = MiscUtil.makeThrowsUnchecked(() -> Files.readString(filePath.toPath()));
+    server().getTextDocumentService().didOpen(
+        new DidOpenTextDocumentParams(new TextDocumentItem(filePath.toLspUri(), "java", 1, text)));
+  }
+
+  private void change(@NotNull LspPath filePath, int version) {
+    final var position = new Position(0, 0);
+    server().getTextDocumentService().didChange(new DidChangeTextDocumentParams(
+        new VersionedTextDocumentIdentifier(filePath.toLspUri(), version),
+        List.of(new TextDocumentContentChangeEvent(new Range(position, position), " "))));
+  }
+}
@@ -0,0 +1,62 @@
+package org.rri.ideals.server.lsp;
+
+import com.intellij.openapi.util.registry.Registry;
+import org.eclipse.lsp4j.*;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+import org.rri.ideals.server.LspPath;
+import org.rri.ideals.server.TestUtil;
+import org.rri.ideals.server.util.MiscUtil;
+
+import java.nio.file.Files;
+
+public class LargeFileModeTest extends LspServerTestBase {
+
+  @Override
+  protected String getProjectRelativePath() {
+    return "lsp/project1";
+  }
+
+  @Test
+  public void expensiveFeaturesAreSkippedForLargeFile() {
+    Registry.get("ideals.documents.largeFileKb").setValue("1", getTestRootDisposable());
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+    final var text = readText(filePath) + "// padding\n".repeat(200);
+
+    open(filePath, text);
+
+    final var notifications = client().getLargeFileModeParams();
+    Assert.assertEquals(1, notifications.size());
+    Assert.assertEquals(filePath, LspPath.fromLspUri(notifications.get(0).uri()));
+    Assert.assertEquals(text.length(), notifications.get(0).length());
+
+    final var textDocument = new TextDocumentIdentifier(filePath.toLspUri());
+    final var highlight = server().getTextDocumentService().documentHighlight(
+        new DocumentHighlightParams(textDocument, new Position(1, 10)));
+    Assert.assertNull(TestUtil.getNonBlockingEdt(highlight, 30000));
+
+    // the cheap features keep working
+    final var hover = server().getTextDocumentService().hover(new HoverParams(textDocument, new Position(1, 10)));
+    Assert.assertNotNull(TestUtil.getNonBlockingEdt(hover, 30000));
+  }
+
+  @Test
+  public void smallFileIsNotInLargeFileMode() {
+    final var filePath = LspPath.fromLocalPath(getProjectPath().resolve("src/Test.java"));
+
+    open(filePath, readText(filePath));
+
+    Assert.assertTrue(client().getLargeFileModeParams().isEmpty());
+  }
+
+  private void open(@NotNull LspPath filePath, @NotNull String text) {
+    server().getTextDocumentService().didOpen(
+        new DidOpenTextDocumentParams(new TextDocumentItem(filePath.toLspUri(), "java", 1, text)));
+  }
+
+  @NotNull
+  private static String readText(@NotNull LspPath filePath) {
+    return MiscUtil.makeThrowsUnchecked(() -> Files.readString(filePath.toPath()));
+  }
+}
@@ -3,17 +3,23 @@ package org.rri.ideals.server.mocks;
 import com.intellij.openapi.diagnostic.Logger;
 import org.eclipse.lsp4j.*;
 import org.jetbrains.annotations.NotNull;
+import org.rri.ideals.server.LargeFileModeParams;
 import org.rri.ideals.server.MyLanguageClient;
 import org.rri.ideals.server.TestUtil;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class MockLanguageClient implements MyLanguageClient {
   @SuppressWarnings("unused")
   private static final Logger LOG = Logger.getInstance(MockLanguageClient.class);
 
+  private final List<LargeFileModeParams> largeFileModeParams = new CopyOnWriteArrayList<>();
+  private final List<TextDocumentIdentifier> resyncRequests = new CopyOnWriteArrayList<>();
+
   @Override
   public void notifyIndexStarted() {
 
@@ -24,12 +30,33 @@ public class MockLanguageClient implements MyLanguageClient {
 
   }
 
+  @Override
+  public void notifyLargeFileMode(LargeFileModeParams params) {
+    largeFileModeParams.add(params);
+  }
+
+  @NotNull
+  public List<LargeFileModeParams> getLargeFileModeParams() {
+    return largeFileModeParams;
+  }
+
+  @Override
+  public void notifyResyncDocument(TextDocumentIdentifier params) {
+    resyncRequests.add(params);
+  }
+
+  @NotNull
+  public List<TextDocumentIdentifier> getResyncRequests() {
+    return resyncRequests;
+  }
+
   @Override
   public void telemetryEvent(Object object) {
 
   }
 
   private final AtomicReference<CompletableFuture<PublishDiagnosticsParams>> diagnosticsFuture = new AtomicReference<>();
+  private final List<PublishDiagnosticsParams> publishedDiagnostics = new CopyOnWriteArrayList<>();
 
   @Override
   public CompletableFuture<Void> createProgress(WorkDoneProgressCreateParams params) {
@@ -42,9 +69,15 @@ public class MockLanguageClient implements MyLanguageClient {
 
   @Override
   public void publishDiagnostics(PublishDiagnosticsParams diagnostics) {
+    publishedDiagnostics.add(diagnostics);
     Optional.ofNullable(diagnosticsFuture.get()).ifPresent(it -> it.complete(diagnostics));
   }
 
+  @NotNull
+  public List<PublishDiagnosticsParams> getPublishedDiagnostics() {
+    return publishedDiagnostics;
+  }
+
   @SuppressWarnings("unused")
   public void resetDiagnosticsResult() {
     diagnosticsFuture.set(new CompletableFuture<>());
@@ -0,0 +1,50 @@
+package org.rri.ideals.server.util;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.PsiTreeUtil;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.rri.ideals.server.LspLightBasePlatformTestCase;
+
+import java.util.Objects;
+
+@RunWith(JUnit4.class)
+public class FileLineIndexTest extends LspLightBasePlatformTestCase {
+
+  @Test
+  public void locationsDontLoadDocuments() {
+    final var file = myFixture.getTempDirFixture().createFile("Target.java", "class Target {\n  void target() {}\n}\n");
+    final var psiFile = Objects.requireNonNull(ReadAction.compute(() -> PsiManager.getInstance(getProject()).findFile(file)));
+    final var method = ReadAction.compute(() -> PsiTreeUtil.findChildOfType(psiFile, PsiMethod.class));
+
+    final var location = ReadAction.compute(() -> MiscUtil.psiElementToLocation(method));
+
+    assertNotNull(location);
+    assertEquals(new Range(new Position(1, 7), new Position(1, 13)), location.getRange());
+    assertNull(FileDocumentManager.getInstance().getCachedDocument(file));
+  }
+
+  @Test
+  public void indexIsRebuiltWhenFileIsModified() {
+    final var file = myFixture.getTempDirFixture().createFile("Target.txt", "first\n");
+    final var psiFile = Objects.requireNonNull(ReadAction.compute(() -> PsiManager.getInstance(getProject()).findFile(file)));
+
+    final var index = ReadAction.compute(() -> LineIndex.of(psiFile));
+    assertSame(index, ReadAction.compute(() -> LineIndex.of(psiFile)));
+
+    WriteAction.run(() -> VfsUtil.saveText(file, "first\nsecond\n"));
+    final var newPsiFile = Objects.requireNonNull(ReadAction.compute(() -> PsiManager.getInstance(getProject()).findFile(file)));
+
+    final var newIndex = ReadAction.compute(() -> LineIndex.of(newPsiFile));
+    assertNotSame(index, newIndex);
+    assertEquals(3, newIndex.getLineCount());
+  }
+}
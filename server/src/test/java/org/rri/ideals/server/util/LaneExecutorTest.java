@@ -0,0 +1,48 @@
+package org.rri.ideals.server.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LaneExecutorTest {
+  @Test
+  public void rejectsTasksBeyondCapacity() {
+    final var queue = new ArrayList<Runnable>();
+    final var executor = new LaneExecutor("test", queue::add, 2);
+
+    executor.execute(() -> {});
+    executor.execute(() -> {});
+
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+    assertEquals(2, executor.getPendingCount());
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  public void acceptsTasksAgainAfterCompletion() {
+    final var queue = new ArrayList<Runnable>();
+    final var executor = new LaneExecutor("test", queue::add, 1);
+    final var ran = new boolean[1];
+
+    executor.execute(() -> {});
+    queue.remove(0).run();
+    executor.execute(() -> ran[0] = true);
+    queue.remove(0).run();
+
+    assertTrue(ran[0]);
+    assertEquals(0, executor.getPendingCount());
+  }
+
+  @Test
+  public void releasesSlotWhenDelegateRejects() {
+    final var executor = new LaneExecutor("test", command -> {
+      throw new RejectedExecutionException();
+    }, 1);
+
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+    assertEquals(0, executor.getPendingCount());
+  }
+}
@@ -0,0 +1,39 @@
+package org.rri.ideals.server.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+  @Test
+  public void emptyHistogram() {
+    final var snapshot = new LatencyHistogram().snapshot();
+
+    assertEquals(0, snapshot.count());
+    assertEquals(0, snapshot.p99Micros());
+    assertEquals(0, snapshot.maxMicros());
+  }
+
+  @Test
+  public void percentilesAreWithinBucketPrecision() {
+    final var histogram = new LatencyHistogram();
+    for (int millis = 1; millis <= 100; millis++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    final var snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.count());
+    assertEquals(50_500, snapshot.meanMicros());
+    assertEquals(100_000, snapshot.maxMicros());
+    assertWithinPrecision(50_000, snapshot.p50Micros());
+    assertWithinPrecision(90_000, snapshot.p90Micros());
+    assertWithinPrecision(95_000, snapshot.p95Micros());
+    assertWithinPrecision(99_000, snapshot.p99Micros());
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    assertTrue(actual >= expected && actual <= expected * 1.125, "expected ~" + expected + " but was " + actual);
+  }
+}
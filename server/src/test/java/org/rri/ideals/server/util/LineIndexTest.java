@@ -0,0 +1,67 @@
+package org.rri.ideals.server.util;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LineIndexTest {
+  // "é" takes 2 bytes in UTF-8, the emoji takes 2 UTF-16 chars and 4 bytes
+  private static final String TEXT = "ab\r\nc\u00e9\uD83D\uDE00d\rx\n";
+
+  @Test
+  public void linesAreSplitByAllSeparators() {
+    final var index = LineIndex.of(TEXT);
+
+    assertEquals(4, index.getLineCount());
+    assertEquals(2, index.getLineEndOffset(0));
+    assertEquals(4, index.getLineStartOffset(1));
+    assertEquals(9, index.getLineEndOffset(1));
+    assertEquals(11, index.getLineEndOffset(2));
+    assertEquals(12, index.getLineStartOffset(3));
+    assertEquals(3, index.getLineNumber(TEXT.length()));
+  }
+
+  @Test
+  public void columnsDependOnEncoding() {
+    final var index = LineIndex.of(TEXT);
+    final var offsetOfD = 8;
+
+    assertEquals(new Position(1, 7), index.toPosition(offsetOfD, PositionEncoding.UTF8));
+    assertEquals(new Position(1, 4), index.toPosition(offsetOfD, PositionEncoding.UTF16));
+    assertEquals(new Position(1, 3), index.toPosition(offsetOfD, PositionEncoding.UTF32));
+
+    for (var encoding : PositionEncoding.values()) {
+      final var position = index.toPosition(offsetOfD, encoding);
+      assertEquals(offsetOfD, index.toOffset(position.getLine(), position.getCharacter(), encoding), encoding.name());
+    }
+  }
+
+  @Test
+  public void rangesSpanningLines() {
+    final var index = LineIndex.of(TEXT);
+
+    assertEquals(new Range(new Position(0, 1), new Position(1, 8)), index.toRange(1, 9, PositionEncoding.UTF8));
+    assertEquals(new Range(new Position(1, 0), new Position(1, 5)), index.toRange(4, 9, PositionEncoding.UTF16));
+  }
+
+  @Test
+  public void positionsBeyondLinesAreClamped() {
+    final var index = LineIndex.of(TEXT);
+
+    assertEquals(9, index.toOffset(1, 100, PositionEncoding.UTF8));
+    assertEquals(9, index.toOffset(1, 100, PositionEncoding.UTF16));
+    assertEquals(TEXT.length(), index.toOffset(100, 0, PositionEncoding.UTF16));
+  }
+
+  @Test
+  public void negotiation() {
+    assertEquals(PositionEncoding.UTF16, PositionEncoding.negotiate(null));
+    assertEquals(PositionEncoding.UTF16, PositionEncoding.negotiate(List.of("utf-7")));
+    assertEquals(PositionEncoding.UTF8, PositionEncoding.negotiate(List.of("utf-8", "utf-16")));
+    assertEquals(PositionEncoding.UTF32, PositionEncoding.negotiate(List.of("utf-32")));
+  }
+}
@@ -0,0 +1,36 @@
+package org.rri.ideals.server.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestTimingsTest {
+  @Test
+  public void cancelledRequestsAreRecorded() {
+    final var method = "test/cancelled";
+    final var timings = new RequestTimings(method);
+    timings.started();
+
+    timings.finished(RequestTimings.outcomeOf(new CancellationException(), () -> {}));
+
+    assertEquals(1, Metrics.getHistogram(method + RequestTimings.TOTAL_SUFFIX).getCount());
+    assertEquals(1, Metrics.getHistogram(method + RequestTimings.COMPUTE_SUFFIX).getCount());
+    assertEquals(1, Metrics.getHistogram(method + RequestTimings.TOTAL_SUFFIX + RequestTimings.CANCELLED_SUFFIX).getCount());
+    assertNull(Metrics.getHistogram(method + RequestTimings.TOTAL_SUFFIX + RequestTimings.FAILED_SUFFIX));
+  }
+
+  @Test
+  public void failuresAreToldFromCancellations() {
+    final var method = "test/failed";
+    final var timings = new RequestTimings(method);
+    timings.started();
+
+    timings.finished(RequestTimings.outcomeOf(new IllegalStateException(), () -> {}));
+
+    assertEquals(1, Metrics.getHistogram(method + RequestTimings.TOTAL_SUFFIX).getCount());
+    assertEquals(1, Metrics.getHistogram(method + RequestTimings.TOTAL_SUFFIX + RequestTimings.FAILED_SUFFIX).getCount());
+    assertNull(Metrics.getHistogram(method + RequestTimings.TOTAL_SUFFIX + RequestTimings.CANCELLED_SUFFIX));
+  }
+}
@@ -0,0 +1,31 @@
+package org.rri.ideals.server.util;
+
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueHistogramTest {
+  @Test
+  public void valuesAreReportedAsRecorded() {
+    final var histogram = new ValueHistogram();
+    histogram.record(1);
+    histogram.record(2);
+    histogram.record(3);
+
+    final var snapshot = histogram.snapshot();
+    assertEquals(3, snapshot.count());
+    assertEquals(2, snapshot.mean());
+    assertEquals(2, snapshot.p50());
+    assertEquals(3, snapshot.p99());
+    assertEquals(3, snapshot.max());
+  }
+
+  @Test
+  public void bucketsCoverAllValues() {
+    for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123_456_789, Long.MAX_VALUE / 1000}) {
+      final var index = ValueHistogram.bucketIndex(value);
+      assertTrue(ValueHistogram.bucketUpperBound(index) >= value, "upper bound of " + value);
+      assertTrue(index == 0 || ValueHistogram.bucketUpperBound(index - 1) < value, "lower bound of " + value);
+    }
+  }
+}
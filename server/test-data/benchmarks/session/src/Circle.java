@@ -0,0 +1,17 @@
+public class Circle implements </probe/>Shape {
+  private final double radius;
+
+  public Circle(double radius) {
+    this.radius = radius;
+  }
+
+  @Override
+  public double area() {
+    return Math.PI * </probe/>radius * radius;
+  }
+
+  @Override
+  public String name() {
+    return "circle";
+  }
+}
@@ -0,0 +1,12 @@
+public class Main {
+  public static void main(String[] args) {
+    </probe/>Shape shape = new </probe/>Circle(2);
+    double total = shape.</probe/>area() + new Rectangle(1, 2).</probe/>area();
+    System.out.println(</probe/>describe(shape) + total);
+    </type/>
+  }
+
+  static String describe(Shape shape) {
+    return shape.</probe/>name();
+  }
+}
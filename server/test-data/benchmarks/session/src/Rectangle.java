@@ -0,0 +1,19 @@
+public class Rectangle implements </probe/>Shape {
+  private final double width;
+  private final double height;
+
+  public Rectangle(double width, double height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  @Override
+  public double </probe/>area() {
+    return </probe/>width * height;
+  }
+
+  @Override
+  public String name() {
+    return "rectangle";
+  }
+}